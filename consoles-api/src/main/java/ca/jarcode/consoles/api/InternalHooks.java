@@ -5,6 +5,7 @@ import org.bukkit.entity.Player;
 
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 import java.util.function.Supplier;
 
 /**
@@ -65,7 +66,7 @@ public class InternalHooks {
 	/**
 	 * Handle for implementing code
 	 */
-	public static Function<Integer, Boolean> INTERNAL_IS_CONSOLE_ENTITY_ID = null;
+	public static IntPredicate INTERNAL_IS_CONSOLE_ENTITY_ID = null;
 
 	/**
 	 * Interface for implementing code
@@ -161,6 +162,6 @@ public class InternalHooks {
 	 * @return whether the entity id corresponds to a console entity (item frame)
 	 */
 	public static boolean isConsoleEntity(int id) {
-		return INTERNAL_IS_CONSOLE_ENTITY_ID.apply(id);
+		return INTERNAL_IS_CONSOLE_ENTITY_ID.test(id);
 	}
 }
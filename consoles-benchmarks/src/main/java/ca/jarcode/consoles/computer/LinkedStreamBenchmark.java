@@ -0,0 +1,80 @@
+package ca.jarcode.consoles.computer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+
+Moves 1 MB through a LinkedStream, the same way program output reaches a terminal: a
+program thread writes to the output side, and the feed reads it in 1 KB chunks.
+
+The program either writes single bytes (like a PrintStream without buffering) or
+4 KB chunks.
+
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkedStreamBenchmark {
+
+	private static final int SIZE = 1024 * 1024;
+	// same as ConsoleFeed's read size
+	private static final int READ_SIZE = 1024;
+
+	// size of each write made by the program
+	@Param({"1", "4096"})
+	public int chunk;
+
+	private ExecutorService program;
+	private byte[] data;
+
+	@Setup
+	public void setup() {
+		program = Executors.newSingleThreadExecutor();
+		data = new byte[chunk];
+	}
+
+	@TearDown
+	public void tearDown() {
+		program.shutdownNow();
+	}
+
+	@Benchmark
+	public int transfer() throws Exception {
+		LinkedStream stdin = new LinkedStream();
+		OutputStream stdout = stdin.createOutput();
+		Future<?> writer = program.submit(() -> {
+			try {
+				if (chunk == 1) {
+					for (int t = 0; t < SIZE; t++)
+						stdout.write(t & 0x7F);
+				}
+				else {
+					for (int t = 0; t < SIZE; t += chunk)
+						stdout.write(data, 0, chunk);
+				}
+				stdout.write(-1);
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		byte[] buffer = new byte[READ_SIZE];
+		int total = 0, read;
+		while ((read = stdin.read(buffer, 0, READ_SIZE)) != -1)
+			total += read;
+		writer.get();
+		if (total != SIZE)
+			throw new IllegalStateException("read " + total + " bytes");
+		return total;
+	}
+}
@@ -0,0 +1,89 @@
+package ca.jarcode.consoles.computer.interpreter;
+
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.LibFunction;
+import org.luaj.vm2.lib.TwoArgFunction;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/*
+
+Calls from Lua into lua$ methods on a program, through the bound functions that Lua#find
+creates (LuaBridge), and through the reflective functions that were used before: a
+Method#invoke with every argument converted by Lua#translate.
+
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindingBenchmark {
+
+	@SuppressWarnings("unused")
+	public static class Target {
+		public int lua$add(int a, int b) {
+			return a + b;
+		}
+		public String lua$concat(String a, String b) {
+			return a + b;
+		}
+	}
+
+	private final LuaValue a = LuaValue.valueOf(20), b = LuaValue.valueOf(22);
+	private final LuaValue s = LuaValue.valueOf("con"), s1 = LuaValue.valueOf("sole");
+
+	private LibFunction add, concat;
+	private LibFunction addReflective, concatReflective;
+
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		Target target = new Target();
+		Method addMethod = Target.class.getMethod("lua$add", int.class, int.class);
+		Method concatMethod = Target.class.getMethod("lua$concat", String.class, String.class);
+		add = new LuaBridge.BoundFunction(LuaBridge.bind(addMethod, target));
+		concat = new LuaBridge.BoundFunction(LuaBridge.bind(concatMethod, target));
+		addReflective = reflective(addMethod, target);
+		concatReflective = reflective(concatMethod, target);
+	}
+
+	// how lua$ methods were bound before
+	private static LibFunction reflective(Method m, Object inst) {
+		Class[] types = m.getParameterTypes();
+		return new TwoArgFunction() {
+			@Override
+			public LuaValue call(LuaValue v, LuaValue v1) {
+				try {
+					return Lua.translateLua(m.invoke(inst, Lua.toJava(types, v, v1)));
+				} catch (IllegalAccessException | InvocationTargetException e) {
+					throw new LuaError(e);
+				}
+			}
+		};
+	}
+
+	@Benchmark
+	public LuaValue add() {
+		return add.call(a, b);
+	}
+
+	@Benchmark
+	public LuaValue addReflective() {
+		return addReflective.call(a, b);
+	}
+
+	@Benchmark
+	public LuaValue concat() {
+		return concat.call(s, s1);
+	}
+
+	@Benchmark
+	public LuaValue concatReflective() {
+		return concatReflective.call(s, s1);
+	}
+}
@@ -0,0 +1,107 @@
+package ca.jarcode.consoles.internal;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+
+Map ID translation for a single context, with MapAllocationTable and with the HashBiMap
+tables (read and written under the allocation lock) that it replaced.
+
+translate is what every outgoing map packet does, allocate is what happens when a console
+is created and removed. Run with more threads (-t) to see lookups contending on the lock.
+
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapIdTableBenchmark {
+
+	private static final short BASE = 5000;
+	private static final int LOOKUPS = 4096;
+
+	// amount of maps allocated for the context
+	@Param({"64", "1024"})
+	public int maps;
+
+	private MapAllocationTable table;
+
+	private BiMap<Short, Short> legacy;
+	private final Object ALLOCATION_LOCK = new Object();
+
+	private short[] lookups;
+	private short unused;
+
+	@Setup
+	public void setup() {
+		table = new MapAllocationTable(BASE);
+		legacy = HashBiMap.create();
+		for (int t = 0; t < maps; t++) {
+			short global = (short) (BASE + t);
+			legacy.put(global, table.map(global));
+		}
+		table.publish();
+		Random random = new Random(0);
+		lookups = new short[LOOKUPS];
+		for (int t = 0; t < LOOKUPS; t++) {
+			lookups[t] = (short) (BASE + random.nextInt(maps));
+		}
+		unused = (short) (BASE + maps);
+	}
+
+	// the position in the lookups for each benchmark thread
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+	}
+
+	@Benchmark
+	public short translate(Cursor cursor) {
+		return table.translate(lookups[cursor.next++ & (LOOKUPS - 1)]);
+	}
+
+	@Benchmark
+	public short translateLegacy(Cursor cursor) {
+		short global = lookups[cursor.next++ & (LOOKUPS - 1)];
+		synchronized (ALLOCATION_LOCK) {
+			if (!legacy.containsKey(global))
+				return -1;
+			Short s = legacy.get(global);
+			return s == null ? 0 : s;
+		}
+	}
+
+	@Benchmark
+	public short allocate() {
+		synchronized (ALLOCATION_LOCK) {
+			short client = table.map(unused);
+			table.remove(unused);
+			table.publish();
+			return client;
+		}
+	}
+
+	@Benchmark
+	public short allocateLegacy() {
+		synchronized (ALLOCATION_LOCK) {
+			short result = -1;
+			// the lowest free client ID, like ConsoleHandler#mapIndex used to find it
+			for (short t = BASE; ; t++) {
+				if (!legacy.containsValue(t)) {
+					legacy.put(unused, t);
+					result = t;
+					break;
+				}
+			}
+			legacy.remove(unused);
+			return result;
+		}
+	}
+}
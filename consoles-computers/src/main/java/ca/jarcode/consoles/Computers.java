@@ -4,7 +4,9 @@ import ca.jarcode.consoles.api.Position2D;
 import ca.jarcode.consoles.computer.ComputerHandler;
 import ca.jarcode.consoles.computer.GeneralListener;
 import ca.jarcode.consoles.computer.MapDataStore;
+import ca.jarcode.consoles.computer.ProgramScheduler;
 import ca.jarcode.consoles.computer.command.CommandComputer;
+import ca.jarcode.consoles.computer.interpreter.ChunkCache;
 import ca.jarcode.consoles.computer.interpreter.Lua;
 import ca.jarcode.consoles.internal.ConsoleHandler;
 import org.bukkit.event.Listener;
@@ -31,6 +33,20 @@ public class Computers extends JavaPlugin {
 	public static int maxTimeWithoutInterrupt = 7000;
 	// chunk size (in kilobytes) that wget downloads every 300ms
 	public static int wgetChunkSize = 2;
+	// maximum amount of compiled Lua chunks to keep in memory
+	public static int chunkCacheSize = 256;
+	// size of the thread pool that programs are ran on (when virtual threads are not available)
+	public static int programThreads = 64;
+	// maximum amount of programs running at once for each owner, 0 for no limit
+	public static int programsPerOwner = 0;
+	// maximum amount of Lua instructions each computer can execute per tick, 0 for no limit
+	public static int instructionQuota = 250000;
+	// maximum amount of unread messages a channel can hold
+	public static int channelCapacity = 1024;
+	// amount of threads that computers are saved on
+	public static int saveThreads = 2;
+	// files at least this large (in KB) are memory-mapped when read, 0 to never map files
+	public static int mmapThreshold = 0;
 
 	public static File jarFile;
 
@@ -56,6 +72,13 @@ public class Computers extends JavaPlugin {
 		hideSaveMessages = getConfig().getBoolean("hide-save-messages", false);
 		maxTimeWithoutInterrupt = getConfig().getInt("max-time-without-interrupt", 7000);
 		wgetChunkSize = getConfig().getInt("wget-chunk-size", 2);
+		chunkCacheSize = getConfig().getInt("chunk-cache-size", 256);
+		programThreads = Math.max(1, getConfig().getInt("program-threads", 64));
+		programsPerOwner = getConfig().getInt("programs-per-owner", 0);
+		instructionQuota = getConfig().getInt("instruction-quota", 250000);
+		channelCapacity = Math.max(1, getConfig().getInt("channel-capacity", 1024));
+		saveThreads = Math.max(1, getConfig().getInt("save-threads", 2));
+		mmapThreshold = Math.max(0, getConfig().getInt("mmap-threshold", 0));
 
 		MapDataStore.init(this);
 
@@ -82,6 +105,8 @@ public class Computers extends JavaPlugin {
 	}
 	public void onDisable() {
 		Lua.killAll = true;
+		ChunkCache.clear();
+		ProgramScheduler.shutdown();
 	}
 
 	private void register(Supplier... suppliers) {
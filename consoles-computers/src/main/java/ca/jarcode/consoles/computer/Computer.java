@@ -1,11 +1,13 @@
 package ca.jarcode.consoles.computer;
 
 import ca.jarcode.consoles.Computers;
+import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.api.*;
 import ca.jarcode.consoles.api.nms.ConsolesNMS;
 import ca.jarcode.consoles.computer.boot.Kernel;
 import ca.jarcode.consoles.computer.devices.CommandDevice;
 import ca.jarcode.consoles.computer.filesystem.*;
+import ca.jarcode.consoles.computer.interpreter.CpuAccount;
 import ca.jarcode.consoles.computer.interpreter.Lua;
 import ca.jarcode.consoles.computer.interpreter.SandboxProgram;
 import ca.jarcode.consoles.computer.manual.Arg;
@@ -28,14 +30,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiConsumer;
-import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static ca.jarcode.consoles.Lang.lang;
 
@@ -73,11 +73,21 @@ public abstract class Computer implements Runnable {
 	private final List<BiConsumer<String, String>> listeners = new CopyOnWriteArrayList<>();
 	private final List<BiConsumer<String, Position2D>> interactListeners = new CopyOnWriteArrayList<>();
 
-	private final Map<String, Consumer<String>> messageListeners = new ConcurrentHashMap<>();
+	private final Map<String, Predicate<String>> messageListeners = new ConcurrentHashMap<>();
+
+	// instructions executed by all programs on this computer
+	private final CpuAccount cpu = new CpuAccount(Computers.instructionQuota);
 
 	// for programs
 	private volatile boolean ignoreUnauthorizedViewChange = false;
 
+	// where the filesystem is saved, created when first needed
+	private FilesystemJournal journal;
+	// the header and metadata as they were last saved, so they are only written when they change
+	volatile byte[] savedHeader, savedMeta;
+	// the shared blobs this computer referenced when it was last saved, or null if they haven't been read yet
+	volatile Set<String> blobs = Collections.emptySet();
+
 	public Computer(String hostname, UUID owner, ManagedConsole console) {
 		this.hostname = hostname;
 		this.owner = owner;
@@ -141,13 +151,14 @@ public abstract class Computer implements Runnable {
 	public boolean isChannelRegistered(String channel) {
 		return messageListeners.containsKey(channel);
 	}
-	public void registerMessageListener(String channel, Consumer<String> consumer) {
+	// listeners return false if the message could not be delivered
+	public void registerMessageListener(String channel, Predicate<String> consumer) {
 		messageListeners.put(channel, consumer);
 	}
 	public void unregisterMessageListener(String channel) {
 		messageListeners.remove(channel);
 	}
-	public Consumer<String> getMessageListener(String channel) {
+	public Predicate<String> getMessageListener(String channel) {
 		return messageListeners.get(channel);
 	}
 	public void clickEvent(Position2D pos, String player) {
@@ -169,6 +180,22 @@ public abstract class Computer implements Runnable {
 	public int getViewHeight() {
 		return getConsole().getHeight() - (2 + ROOT_COMPONENT_POSITION.getY());
 	}
+	// the journal the filesystem is saved to, this changes if the computer is renamed
+	public synchronized FilesystemJournal getJournal() {
+		File file = new File(ComputerData.computerFolder, getHostname() + File.separatorChar + "fs.journal");
+		if (journal == null || !journal.getFile().equals(file))
+			journal = new FilesystemJournal(file);
+		return journal;
+	}
+	// the shared blobs this computer referenced when it was last saved, the journal is read if they aren't known
+	Set<String> savedBlobs() throws IOException {
+		Set<String> blobs = this.blobs;
+		if (blobs == null) {
+			blobs = SerializedFilesystem.readBlobs(getJournal());
+			this.blobs = blobs;
+		}
+		return blobs;
+	}
 	public File linkFile(FSStoredFile stored) {
 		File parent = new File(ComputerData.computerFolder, getHostname()
 				+ File.separatorChar + "files");
@@ -191,6 +218,7 @@ public abstract class Computer implements Runnable {
 	private interface BlockCreator {
 		boolean create(File file) throws IOException;
 	}
+	// loads the filesystem from its journal, or from the given file if it was saved in the old format
 	public void load(File file) throws IOException {
 		try {
 			// create kernel instance for loading fs
@@ -198,9 +226,17 @@ public abstract class Computer implements Runnable {
 			// create instance
 			SerializedFilesystem fs = new SerializedFilesystem(this);
 			// map out serialized file tree
-			fs.readFrom(new FileInputStream(file));
+			FilesystemJournal journal = getJournal();
+			// folders from the journal are loaded when they're first used, so the blobs aren't known yet
+			boolean lazy = journal.exists();
+			if (lazy)
+				fs.readFrom(journal);
+			else try (FileInputStream in = new FileInputStream(file)) {
+				fs.readFrom(in);
+			}
 			// call block serializers
 			root = (FSFolder) fs.deserialize();
+			blobs = lazy ? null : fs.getBlobs();
 		} catch (Exception e) {
 			if (e instanceof IOException)
 				throw (IOException) e;
@@ -284,13 +320,16 @@ public abstract class Computer implements Runnable {
 				term.doAfter(startup); // schedule our startup task to run after the init program
 		}, time);
 	}
-	public void save() {
-		try {
-			new ComputerData(this).save();
-		} catch (IOException e) {
-			Computers.getInstance().getLogger().severe(lang.getString("computer-save-fail"));
-			e.printStackTrace();
-		}
+	// saves the computer in the background, the returned future completes once it has been written
+	public CompletableFuture<ComputerData.SaveMetrics> save() {
+		return new ComputerData(this).save().whenComplete((metrics, e) -> {
+			if (e != null) {
+				Computers.getInstance().getLogger().severe(lang.getString("computer-save-fail"));
+				e.printStackTrace();
+			}
+			else if (Consoles.debug)
+				Computers.getInstance().getLogger().info("Saved " + metrics);
+		});
 	}
 	private void printAfter(final String text, long delay) {
 		Bukkit.getScheduler().scheduleSyncDelayedTask(Computers.getInstance(), () -> {
@@ -404,6 +443,9 @@ public abstract class Computer implements Runnable {
 	public UUID getOwner() {
 		return owner;
 	}
+	public CpuAccount getCpu() {
+		return cpu;
+	}
 	public List<String> getSystemPath() {
 		return kernel.getSystemPath();
 	}
@@ -4,6 +4,7 @@ import ca.jarcode.consoles.Computers;
 import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.api.ConsoleCreateException;
 import ca.jarcode.consoles.api.nms.ConsolesNMS;
+import ca.jarcode.consoles.computer.filesystem.BlobStore;
 import ca.jarcode.consoles.computer.filesystem.SerializedFilesystem;
 import ca.jarcode.consoles.internal.ConsoleMeta;
 import ca.jarcode.consoles.util.LocalPosition;
@@ -16,9 +17,11 @@ import org.bukkit.Location;
 import org.bukkit.plugin.Plugin;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -36,10 +39,15 @@ public class ComputerData {
 	//  -- <hostname> (folder)
 	//   |
 	//    -- header.json (file - fields from this class)
-	//    -- fs.dat (file - serialized filesystem)
+	//    -- fs.journal (file - serialized filesystem, changed blocks are appended on each save)
+	//    -- fs.dat (file - serialized filesystem in the old format, replaced by fs.journal on the first save)
 	//    -- metadata.dat (file - serialized ConsoleMeta)
+	//    -- files (folder - data of stored files, named by their UUID)
+	// - blobs (folder - file data shared between computers, see BlobStore)
 	static void init(){
 		Plugin plugin = Computers.getInstance();
+		// shared file data, this has to be opened before any computers are loaded
+		BlobStore.init(new File(plugin.getDataFolder(), "blobs"));
 		computerFolder = new File(plugin.getDataFolder().getAbsolutePath() +
 				File.separator + "computers");
 		if (!computerFolder.exists()) {
@@ -75,7 +83,9 @@ public class ComputerData {
 	// sets up a ComputerData object that is prepared to load from a folder
 	public static ComputerData fromFolder(File folder, Function<ComputerData, Boolean> predicate) throws IOException {
 		File header = new File(folder.getAbsolutePath() + File.separator + "header.json");
-		File fs = new File(folder.getAbsolutePath() + File.separator + "fs.dat");
+		File fs = new File(folder.getAbsolutePath() + File.separator + "fs.journal");
+		if (!fs.exists())
+			fs = new File(folder.getAbsolutePath() + File.separator + "fs.dat");
 		File metadata = new File(folder.getAbsolutePath() + File.separator + "metadata.dat");
 		validateFiles(header, fs, metadata);
 		FileReader reader = new FileReader(header);
@@ -91,6 +101,8 @@ public class ComputerData {
 
 	// deletes the data that corresponds to the given computer's hostname
 	public static boolean delete(String hostname) {
+		// the files could still be being written
+		SaveScheduler.awaitSaves(hostname);
 		File folder = new File(computerFolder.getAbsolutePath() + File.separator + hostname);
 		if (!folder.exists())
 			return false;
@@ -105,17 +117,11 @@ public class ComputerData {
 
 	// renames a computer
 	public static boolean rename(String old, String hostname) {
+		SaveScheduler.awaitSaves(old);
 		File folder = new File(computerFolder.getAbsolutePath() + File.separator + old);
 		return folder.exists() && folder.renameTo(new File(computerFolder.getAbsolutePath() + File.separator + hostname));
 	}
 
-	private static void makeFiles(File... files) throws IOException {
-		for (File file : files) {
-			if (!file.exists() && !file.createNewFile())
-				throw new IOException("failed to create file: " + file.getAbsolutePath());
-		}
-	}
-
 	private static void validateFiles(File... files) throws IOException {
 		for (File file : files) {
 			if (!file.exists())
@@ -125,18 +131,23 @@ public class ComputerData {
 		}
 	}
 
-	// loads and instantiates all the computers currently saved to disk
-	public static List<Computer> makeAll(Consumer<String> inactiveHandler) {
+	// loads and instantiates all the computers currently saved to disk. Computers in chunks that aren't loaded
+	// are passed to the pending handler instead, without reading their filesystems.
+	public static List<Computer> makeAll(Consumer<String> inactiveHandler, Consumer<ComputerData> pendingHandler) {
 		Computers.getInstance().getLogger().info("Loading computers...");
 		File[] files = computerFolder.listFiles();
 		List<Computer> list = new ArrayList<>();
 		if (files != null) {
-			int loaded = 0;
+			int loaded = 0, pending = 0;
 			for (File entry : files) {
 				if (entry.isDirectory()) {
 					try {
 						ComputerData data = fromFolder(entry, d -> d.built);
-						if (data != null) {
+						if (data != null && !data.isChunkLoaded()) {
+							pendingHandler.accept(data);
+							pending++;
+						}
+						else if (data != null) {
 							list.add(data.toComputer(true));
 							loaded++;
 						}
@@ -150,12 +161,14 @@ public class ComputerData {
 					}
 				}
 			}
-			Computers.getInstance().getLogger().info("Loaded " + loaded + " computers.");
+			Computers.getInstance().getLogger().info("Loaded " + loaded + " computers"
+					+ (pending > 0 ? " (" + pending + " waiting for their chunks to load)." : "."));
 		}
 		else Computers.getInstance().getLogger().severe("Could not load saved computers, failed to obtain files");
 		return list;
 	}
 	public static boolean updateHeader(String hostname, Consumer<ComputerData> transformer) {
+		SaveScheduler.awaitSaves(hostname);
 		File target = new File(computerFolder.getAbsolutePath() + File.separatorChar + hostname);
 		if (target.exists() && target.isDirectory()) {
 			try {
@@ -178,6 +191,7 @@ public class ComputerData {
 		return false;
 	}
 	public static boolean updateMeta(String hostname, Consumer<ConsoleMeta> transformer) {
+		SaveScheduler.awaitSaves(hostname);
 		File target = new File(computerFolder.getAbsolutePath() + File.separatorChar + hostname);
 		if (target.exists() && target.isDirectory()) {
 			try {
@@ -196,6 +210,7 @@ public class ComputerData {
 		return false;
 	}
 	public static ManagedComputer load(String hostname) {
+		SaveScheduler.awaitSaves(hostname);
 		File target = new File(computerFolder.getAbsolutePath() + File.separatorChar + hostname);
 		if (target.exists() && target.isDirectory()) {
 			try {
@@ -219,22 +234,118 @@ public class ComputerData {
 		meta = computer.getConsole().createMeta();
 	}
 	// if this ComputerData object was created from a computer, this method is used to
-	// save everything to file.
-	public void save() throws IOException {
-		File folder = new File(computerFolder.getAbsolutePath() + File.separator + hostname);
-		if (!folder.exists() && !folder.mkdir())
-			throw new IOException("failed to create folder: " + folder.getAbsolutePath());
-		File header = new File(folder.getAbsolutePath() + File.separator + "header.json");
-		File fs = new File(folder.getAbsolutePath() + File.separator + "fs.dat");
-		File metadata = new File(folder.getAbsolutePath() + File.separator + "metadata.dat");
-		makeFiles(header, fs, metadata);
-		writeMetadata(new FileOutputStream(metadata), meta);
-		SerializedFilesystem files = new SerializedFilesystem(computer);
-		files.serialize();
-		files.writeTo(new FileOutputStream(fs));
-		FileWriter writer = new FileWriter(header);
-		writer.write(GSON.toJson(this, ComputerData.class));
-		writer.close();
+	// save everything to file. A snapshot of the computer is taken on the calling thread,
+	// and then written in the background.
+	public CompletableFuture<SaveMetrics> save() {
+		long start = System.nanoTime();
+		Computer computer = this.computer;
+		// the header and metadata are small, but there's no need to write them if nothing changed
+		byte[] metaBytes = meta.toBytes();
+		byte[] headerBytes = GSON.toJson(this, ComputerData.class).getBytes(StandardCharsets.UTF_8);
+		boolean metaChanged = !Arrays.equals(metaBytes, computer.savedMeta);
+		boolean headerChanged = !Arrays.equals(headerBytes, computer.savedHeader);
+		// only the blocks that changed are serialized
+		SerializedFilesystem.Snapshot snapshot = new SerializedFilesystem(computer).snapshot(computer.getJournal());
+		long snapshotTime = System.nanoTime() - start;
+		return SaveScheduler.getInstance().submit(hostname, () -> {
+			long writeStart = System.nanoTime();
+			File folder = new File(computerFolder.getAbsolutePath() + File.separator + hostname);
+			if (!folder.exists() && !folder.mkdir())
+				throw new IOException("failed to create folder: " + folder.getAbsolutePath());
+			File header = new File(folder.getAbsolutePath() + File.separator + "header.json");
+			File legacy = new File(folder.getAbsolutePath() + File.separator + "fs.dat");
+			File metadata = new File(folder.getAbsolutePath() + File.separator + "metadata.dat");
+			long written = 0;
+			if (metaChanged || !metadata.exists()) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				writeMetadata(out, metaBytes);
+				written += writeAtomic(metadata, out.toByteArray());
+				computer.savedMeta = metaBytes;
+			}
+			// blobs that are now referenced are counted before the filesystem is written, and blobs that
+			// are no longer referenced are released after, so a failed save never under-counts them
+			BlobStore store = BlobStore.getInstance();
+			// when nothing changed, neither did the blobs
+			Set<String> current = snapshot.getBlobs();
+			Set<String> previous = current == null ? Collections.emptySet() : computer.savedBlobs();
+			Set<String> added = current == null ? new HashSet<>() : new HashSet<>(current);
+			added.removeAll(previous);
+			Set<String> removed = new HashSet<>(previous);
+			if (current != null)
+				removed.removeAll(current);
+			if (!added.isEmpty()) {
+				store.retain(added);
+				store.writeIndex();
+			}
+			try {
+				snapshot.write();
+			}
+			catch (IOException e) {
+				store.release(added);
+				throw e;
+			}
+			if (current != null)
+				computer.blobs = current;
+			if (!removed.isEmpty()) {
+				store.release(removed);
+				store.writeIndex();
+			}
+			written += snapshot.getWrittenBytes();
+			// the journal replaces the old filesystem format
+			if (legacy.exists() && !legacy.delete())
+				Computers.getInstance().getLogger().warning("Could not delete old filesystem: " + legacy.getAbsolutePath());
+			if (headerChanged || !header.exists()) {
+				written += writeAtomic(header, headerBytes);
+				computer.savedHeader = headerBytes;
+			}
+			return new SaveMetrics(hostname, snapshotTime, System.nanoTime() - writeStart,
+					snapshot.getWrittenBlocks(), written);
+		});
+	}
+	// writes to a temporary file first, so the file is never left half-written
+	private static long writeAtomic(File file, byte[] data) throws IOException {
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(temp)) {
+			out.write(data);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return data.length;
+	}
+	// timing and size of a single save
+	public static class SaveMetrics {
+
+		public final String hostname;
+		// time spent taking the snapshot (on the server thread) and writing it, in nanoseconds
+		public final long snapshotTime, writeTime;
+		public final int blocks;
+		public final long bytes;
+
+		private SaveMetrics(String hostname, long snapshotTime, long writeTime, int blocks, long bytes) {
+			this.hostname = hostname;
+			this.snapshotTime = snapshotTime;
+			this.writeTime = writeTime;
+			this.blocks = blocks;
+			this.bytes = bytes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d blocks (%d bytes), snapshot %.2fms, write %.2fms",
+					hostname, blocks, bytes, snapshotTime / 1000000D, writeTime / 1000000D);
+		}
+	}
+	public String getHostname() {
+		return hostname;
+	}
+	// where the console of this computer is placed
+	public Location getLocation() {
+		return meta.location;
+	}
+	// whether the chunk the console is placed in is loaded, computers in worlds that aren't loaded are always created
+	private boolean isChunkLoaded() {
+		Location location = meta.location;
+		return location == null || location.getWorld() == null
+				|| location.getWorld().isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4);
 	}
 	// if this ComputerData object was created from a folder, this creates the computer
 	public ManagedComputer toComputer(boolean create) throws IOException {
@@ -270,8 +381,10 @@ public class ComputerData {
 		}
 	}
 	private static void writeMetadata(OutputStream out, ConsoleMeta meta) throws IOException {
+		writeMetadata(out, meta.toBytes());
+	}
+	private static void writeMetadata(OutputStream out, byte[] arr) throws IOException {
 		DataOutputStream data = new DataOutputStream(out);
-		byte[] arr = meta.toBytes();
 		data.writeInt(arr.length);
 		data.write(arr);
 		out.close();
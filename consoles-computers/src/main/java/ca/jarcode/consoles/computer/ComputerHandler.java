@@ -4,6 +4,7 @@ import ca.jarcode.consoles.Computers;
 import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.api.ConsoleCreateException;
 import ca.jarcode.consoles.api.nms.ConsolesNMS;
+import ca.jarcode.consoles.computer.filesystem.BlobStore;
 import ca.jarcode.consoles.computer.interpreter.Lua;
 import ca.jarcode.consoles.computer.manual.Arg;
 import ca.jarcode.consoles.computer.manual.FunctionManual;
@@ -23,6 +24,7 @@ import org.bukkit.event.block.BlockPistonRetractEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.player.PlayerItemHeldEvent;
 import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.ShapedRecipe;
@@ -31,9 +33,13 @@ import org.bukkit.inventory.meta.ItemMeta;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -44,6 +50,9 @@ public class ComputerHandler implements Listener {
 
 	private static ComputerHandler instance;
 
+	// how long to wait for computers to be written when the plugin is disabled
+	private static final long SHUTDOWN_SAVE_TIMEOUT = 60000;
+
 	// register lua functions in this class
 	static {
 		Lua.map(ComputerHandler::lua_redstone, "redstone");
@@ -125,7 +134,11 @@ public class ComputerHandler implements Listener {
 
 	ShapedRecipe computerRecipe;
 	private ArrayList<String> inactiveHosts = new ArrayList<>();
-	private ArrayList<Computer> computers = new ArrayList<>();
+	// computers that are created once the chunk their console is in loads, by chunk. These still count
+	// towards their owner's limit, and are created early if something looks them up by hostname.
+	private final HashMap<String, List<ComputerData>> pending = new HashMap<>();
+	// computers are added when chunks load and looked up from program threads, so this is copy-on-write
+	private final List<Computer> computers = new CopyOnWriteArrayList<>();
 	private HashMap<String, CommandBlock> linkRequests = new HashMap<>();
 	private HashMap<Location, Computer> trackedBlocks = new LinkedHashMap<>();
 
@@ -146,7 +159,70 @@ public class ComputerHandler implements Listener {
 		ComputerData.init();
 		Bukkit.getScheduler().scheduleSyncRepeatingTask(Computers.getInstance(), this::saveAll, 6000, 6000);
 		Bukkit.getScheduler().scheduleSyncDelayedTask(Computers.getInstance(),
-				() -> computers.addAll(ComputerData.makeAll(inactiveHosts::add)));
+				() -> computers.addAll(ComputerData.makeAll(inactiveHosts::add, this::defer)));
+	}
+
+	private void defer(ComputerData data) {
+		Location location = data.getLocation();
+		synchronized (pending) {
+			pending.computeIfAbsent(chunkKey(location.getWorld(), location.getBlockX() >> 4,
+					location.getBlockZ() >> 4), (key) -> new ArrayList<>()).add(data);
+		}
+	}
+
+	// computers that are waiting for their chunk to load
+	public List<ComputerData> getPending() {
+		synchronized (pending) {
+			return pending.values().stream()
+					.flatMap(List::stream)
+					.collect(Collectors.toList());
+		}
+	}
+
+	// creates the pending computers that match the filter, this has to be called from the main thread
+	private List<Computer> activate(Predicate<ComputerData> filter) {
+		List<ComputerData> matched = new ArrayList<>();
+		synchronized (pending) {
+			Iterator<List<ComputerData>> it = pending.values().iterator();
+			while (it.hasNext()) {
+				List<ComputerData> list = it.next();
+				list.removeIf(data -> filter.test(data) && matched.add(data));
+				if (list.isEmpty())
+					it.remove();
+			}
+		}
+		List<Computer> created = new ArrayList<>();
+		for (ComputerData data : matched) {
+			try {
+				Computer computer = data.toComputer(true);
+				computers.add(computer);
+				created.add(computer);
+			}
+			catch (IOException e) {
+				Computers.getInstance().getLogger().severe("Failed to load computer:");
+				e.printStackTrace();
+			}
+		}
+		return created;
+	}
+
+	private static String chunkKey(World world, int x, int z) {
+		return world.getName() + ":" + x + ":" + z;
+	}
+
+	@EventHandler
+	public void onChunkLoad(ChunkLoadEvent e) {
+		String key = chunkKey(e.getWorld(), e.getChunk().getX(), e.getChunk().getZ());
+		List<ComputerData> list;
+		synchronized (pending) {
+			list = pending.get(key);
+		}
+		// consoles are created on the next tick, not while the chunk is still being loaded
+		if (list != null) {
+			Set<ComputerData> waiting = new HashSet<>(list);
+			Bukkit.getScheduler().scheduleSyncDelayedTask(Computers.getInstance(),
+					() -> activate(waiting::contains));
+		}
 	}
 
 	// updates the computer's cache of tracked blocks that are behind it, re-indexing the array.
@@ -361,12 +437,30 @@ public class ComputerHandler implements Listener {
 		}
 	}
 
-	public void saveAll() {
+	// snapshots every computer on this thread, the snapshots are written in the background
+	public CompletableFuture<Void> saveAll() {
 		if (!Computers.hideSaveMessages)
 			Computers.getInstance().getLogger().info(lang.getString("saving-computers"));
-		long count = computers.stream().peek(Computer::save).count();
-		if (!Computers.hideSaveMessages)
-			Computers.getInstance().getLogger().info(String.format(lang.getString("saved-computers"), count));
+		long start = System.nanoTime();
+		List<CompletableFuture<ComputerData.SaveMetrics>> saves = computers.stream()
+				.map(Computer::save)
+				.collect(Collectors.toList());
+		long snapshotTime = System.nanoTime() - start;
+		return CompletableFuture.allOf(saves.toArray(new CompletableFuture[saves.size()])).handle((result, e) -> {
+			if (!Computers.hideSaveMessages) {
+				List<ComputerData.SaveMetrics> saved = saves.stream()
+						.filter(future -> !future.isCompletedExceptionally())
+						.map(CompletableFuture::join)
+						.collect(Collectors.toList());
+				long writeTime = saved.stream().mapToLong(metrics -> metrics.writeTime).max().orElse(0);
+				Computers.getInstance().getLogger().info(String.format(lang.getString("saved-computers"), saved.size())
+						+ String.format(" (%d blocks, %d KB, %.2fms on the server thread, longest write %.2fms)",
+						saved.stream().mapToInt(metrics -> metrics.blocks).sum(),
+						saved.stream().mapToLong(metrics -> metrics.bytes).sum() / 1024,
+						snapshotTime / 1000000D, writeTime / 1000000D));
+			}
+			return null;
+		});
 	}
 
 	public void interact(Position2D pos, Player player, ManagedConsole console) {
@@ -385,6 +479,9 @@ public class ComputerHandler implements Listener {
 	public void saveAll(PluginDisableEvent e) {
 		if (e.getPlugin() == Computers.getInstance()) {
 			saveAll();
+			// the server may stop right after this, so every save has to be written first
+			if (!SaveScheduler.shutdown(SHUTDOWN_SAVE_TIMEOUT))
+				Computers.getInstance().getLogger().severe("Timed out while waiting for computers to save!");
 		}
 	}
 
@@ -429,7 +526,10 @@ public class ComputerHandler implements Listener {
 	}
 	private boolean build(Player player, Location location, String hostname) {
 
-		if (getComputers(player.getUniqueId()).size() >= Computers.maxComputers
+		long owned = getComputers(player.getUniqueId()).size() + getPending().stream()
+				.filter(data -> player.getUniqueId().equals(data.owner))
+				.count();
+		if (owned >= Computers.maxComputers
 				&& !player.hasPermission("computer.limit.ignore")) {
 			player.sendMessage(ChatColor.RED + String.format(lang.getString("computer-limit"), Computers.maxComputers));
 			return false;
@@ -515,14 +615,36 @@ public class ComputerHandler implements Listener {
 				&& ConsolesNMS.internals.getItemNBTBoolean(stack, "computer");
 	}
 	public boolean hostnameTaken(String hostname) {
-		return inactiveHosts.contains(hostname) || computers.stream()
+		return inactiveHosts.contains(hostname) || getPending().stream()
+				.anyMatch(data -> data.getHostname().equals(hostname.toLowerCase()))
+				|| computers.stream()
 				.filter(comp -> comp.getHostname().equals(hostname.toLowerCase()))
 				.findFirst()
 				.isPresent();
 	}
 	public Computer find(String hostname) {
-		return computers.stream().filter(comp -> comp.getHostname().equals(hostname))
+		Computer computer = computers.stream().filter(comp -> comp.getHostname().equals(hostname))
 				.findFirst().orElseGet(() -> null);
+		if (computer == null && getPending().stream().anyMatch(data -> data.getHostname().equals(hostname)))
+			computer = activate(hostname);
+		return computer;
+	}
+	// creates a pending computer before its chunk loads, because something needs it now
+	private Computer activate(String hostname) {
+		if (Bukkit.isPrimaryThread()) {
+			return activate(data -> data.getHostname().equals(hostname)).stream()
+					.findFirst().orElse(null);
+		}
+		try {
+			return Bukkit.getScheduler().callSyncMethod(Computers.getInstance(), () -> activate(hostname)).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+		return null;
 	}
 	public void request(String hostname, CommandBlock block) {
 		linkRequests.put(hostname, block);
@@ -555,8 +677,28 @@ public class ComputerHandler implements Listener {
 				}
 			}
 		}
+		// the blobs have to be read before the journal is deleted, if they weren't yet
+		Set<String> blobs = Collections.emptySet();
+		if (delete) try {
+			SaveScheduler.awaitSaves(computer.getHostname());
+			blobs = computer.savedBlobs();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
 		if (delete && !ComputerData.delete(computer.getHostname()))
 			Computers.getInstance().getLogger().warning("Failed to remove computer: " + computer.getHostname());
+		else if (delete && !blobs.isEmpty()) {
+			BlobStore store = BlobStore.getInstance();
+			store.release(blobs);
+			computer.blobs = Collections.emptySet();
+			try {
+				store.writeIndex();
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		if (!delete && !inactiveHosts.contains(computer.getHostname()))
 			inactiveHosts.add(computer.getHostname());
 		if (!delete)
@@ -10,79 +10,123 @@ import java.util.List;
 
 Input stream that can produce output streams that write to it.
 
-This needs to be optimized into an n-dimensional array, or something. Having
-the ability to re-allocate memory at specific addressed is something I really
-miss about programming in C.
+Data is stored in a ring buffer that grows as needed, so reads and writes never have to
+shift the data that is already buffered. Writing -1 as a single byte ends the stream, readers
+will receive the remaining data followed by -1.
 
  */
 public class LinkedStream extends InputStream {
 
-	byte[] buffer = new byte[0];
+	private byte[] buffer = new byte[64];
+	// index of the first byte, and the amount of bytes buffered
+	private int head = 0, size = 0;
 	public volatile boolean end = false;
 	private List<Runnable> onClose = new ArrayList<>();
 
 	@Override
-	public int read() throws IOException {
+	public synchronized int read() throws IOException {
+		if (!await())
+			return -1;
+		byte b = buffer[head];
+		head = (head + 1) % buffer.length;
+		size--;
+		return b & 0xFF;
+	}
+	@Override
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		if (!await())
+			return -1;
+		int count = Math.min(len, size);
+		// copy up to the end of the array, then wrap around
+		int first = Math.min(count, buffer.length - head);
+		System.arraycopy(buffer, head, b, off, first);
+		System.arraycopy(buffer, 0, b, off + first, count - first);
+		head = (head + count) % buffer.length;
+		size -= count;
+		return count;
+	}
+	// waits for data, returns false if the stream has ended and there is nothing left to read
+	private boolean await() {
 		try {
-			while (!end && buffer.length == 0) {
-				synchronized (this) {
-					this.wait();
-				}
-			}
-			if (end && buffer.length == 0) return -1;
-			synchronized (this) {
-				byte b = buffer[0];
-				advance();
-				return b;
-			}
+			while (!end && size == 0)
+				this.wait();
 		}
 		catch (InterruptedException e) {
-			e.printStackTrace();
+			Thread.currentThread().interrupt();
+			return false;
 		}
-		//TODO: handle this
-		return -1;
+		return size > 0;
 	}
-	public void end() {
+	public synchronized void end() {
 		end = true;
+		this.notifyAll();
 	}
 	public void add(int b) {
 		synchronized (this) {
 			if (b == - 1) {
 				end();
-				this.notify();
 				return;
 			}
-			byte[] old = buffer.clone();
-			buffer = new byte[old.length + 1];
-			System.arraycopy(old, 0, buffer, 0, old.length);
-			buffer[old.length] = (byte) b;
-			this.notify();
+			ensureCapacity(size + 1);
+			buffer[(head + size) % buffer.length] = (byte) b;
+			size++;
+			this.notifyAll();
+		}
+	}
+	public void add(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return;
+		synchronized (this) {
+			ensureCapacity(size + len);
+			int tail = (head + size) % buffer.length;
+			int first = Math.min(len, buffer.length - tail);
+			System.arraycopy(b, off, buffer, tail, first);
+			System.arraycopy(b, off + first, buffer, 0, len - first);
+			size += len;
+			this.notifyAll();
 		}
 	}
+	// grows the buffer, unwrapping the data to the start of the new array
+	private void ensureCapacity(int capacity) {
+		if (capacity <= buffer.length)
+			return;
+		int length = buffer.length;
+		while (length < capacity)
+			length *= 2;
+		byte[] next = new byte[length];
+		int first = Math.min(size, buffer.length - head);
+		System.arraycopy(buffer, head, next, 0, first);
+		System.arraycopy(buffer, 0, next, first, size - first);
+		buffer = next;
+		head = 0;
+	}
 	public void registerCloseListener(Runnable runnable) {
 		onClose.add(runnable);
 	}
 	@Override
 	public synchronized int available() {
-		return buffer.length + (end ? 1 : 0);
+		return size + (end ? 1 : 0);
 	}
 	@Override
 	public void close() {
 		onClose.forEach(Runnable::run);
 	}
-	private void advance() {
-		synchronized (this) {
-			byte[] old = buffer.clone();
-			buffer = new byte[old.length - 1];
-			System.arraycopy(old, 1, buffer, 0, old.length - 1);
-		}
-	}
 	public OutputStream createOutput() {
 		return new OutputStream() {
 			@Override
 			public void write(int b) throws IOException {
 				add(b);
 			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				add(b, off, len);
+			}
 		};
 	}
 }
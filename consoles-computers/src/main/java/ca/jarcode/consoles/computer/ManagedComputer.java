@@ -30,8 +30,9 @@ public class ManagedComputer extends Computer {
 		if (ComputerHandler.getInstance().hostnameTaken(hostname))
 			return false;
 		String old = getHostname();
-		super.setHostname(hostname);
+		// the files are moved first, so folders that are loaded later are read from the new location
 		ComputerData.rename(old, hostname);
+		super.setHostname(hostname);
 		return true;
 	}
 }
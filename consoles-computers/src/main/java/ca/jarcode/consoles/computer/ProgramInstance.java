@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
 
 import static ca.jarcode.consoles.Lang.lang;
 
@@ -24,7 +25,8 @@ public class ProgramInstance implements Runnable {
 	FSProvidedProgram provided;
 	public SandboxProgram interpreted;
 
-	private final Thread thread = new Thread(this);
+	// released once the program has finished
+	private final CountDownLatch done = new CountDownLatch(1);
 
 	private final String argument;
 
@@ -34,11 +36,11 @@ public class ProgramInstance implements Runnable {
 
 	private volatile boolean terminated = false;
 
-	{
-		thread.setDaemon(true);
-		thread.setName("Program Thread");
-		thread.setPriority(Thread.MIN_PRIORITY);
-	}
+	// the thread running this program, interrupted when the program is terminated so blocking reads
+	// and waits return. Program threads are re-used, so this is only set, cleared and interrupted
+	// while holding THREAD_LOCK.
+	private Thread thread = null;
+	private final Object THREAD_LOCK = new Object();
 
 	public ProgramInstance(FSProvidedProgram provided, String argument, Computer computer) {
 		stdin = new LinkedStream();
@@ -64,21 +66,34 @@ public class ProgramInstance implements Runnable {
 		this(interpreted, argument, computer);
 		this.data = data;
 	}
+	// schedules the program to run, it may wait for a free thread before starting
 	public void start() {
-		thread.start();
+		// let the terminal know why nothing is happening yet
+		if (!ProgramScheduler.getInstance().submit(this, computer.getOwner()))
+			write(lang.getString("program-queued") + "\n");
 	}
 	public void terminate() {
-		terminated = true;
+		synchronized (THREAD_LOCK) {
+			terminated = true;
+			if (thread != null)
+				thread.interrupt();
+		}
 	}
 	public boolean isTerminated() {
 		return terminated;
 	}
 	public void waitFor() throws InterruptedException{
-		thread.join();
+		done.await();
 	}
 	@Override
 	public void run() {
+		synchronized (THREAD_LOCK) {
+			thread = Thread.currentThread();
+		}
 		try {
+			// terminated before it got a chance to run
+			if (terminated)
+				return;
 			if (provided != null)
 				provided.init(stdout, stdin, argument, computer, this);
 			else if (interpreted != null) {
@@ -95,11 +110,17 @@ public class ProgramInstance implements Runnable {
 				e.printStackTrace();
 		}
 		finally {
+			synchronized (THREAD_LOCK) {
+				thread = null;
+				// clear the interrupt flag if we were terminated, this thread will be re-used
+				Thread.interrupted();
+			}
 			try {
 				stdout.write((byte) -1); // write -1 (EOF) to signal stream end
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+			done.countDown();
 		}
 	}
 	private void write(String text) {
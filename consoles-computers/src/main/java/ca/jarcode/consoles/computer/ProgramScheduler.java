@@ -0,0 +1,170 @@
+package ca.jarcode.consoles.computer;
+
+import ca.jarcode.consoles.Computers;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+
+Runs program instances on a shared pool of threads, instead of a thread per program.
+
+If the JVM supports virtual threads, every program gets its own virtual thread. Otherwise,
+programs are ran on a pool of platform threads. Programs block on terminals, channels and
+sleeps for most of their lifetime, so they can't wait in a queue for a free thread; when all
+the pooled threads are busy, an extra thread is started for the program. Extra threads exit
+after being idle for a minute.
+
+Each computer owner may only have a limited amount of programs running at once, programs
+started past this limit wait until one of the owner's other programs exit. This way, a
+single player can't occupy the entire pool.
+
+ */
+public class ProgramScheduler {
+
+	private static ProgramScheduler INSTANCE = null;
+
+	public static synchronized ProgramScheduler getInstance() {
+		if (INSTANCE == null)
+			INSTANCE = new ProgramScheduler(Computers.programThreads, Computers.programsPerOwner);
+		return INSTANCE;
+	}
+
+	private final ExecutorService executor;
+	private final boolean virtual;
+	private final int threads;
+	private final int quota;
+
+	// running and waiting programs for each owner
+	private final Map<UUID, Owner> owners = new HashMap<>();
+
+	private final AtomicInteger running = new AtomicInteger(0);
+	private final AtomicInteger waiting = new AtomicInteger(0);
+
+	private ProgramScheduler(int threads, int quota) {
+		this.quota = quota;
+		ExecutorService virtualExecutor = createVirtualExecutor();
+		if (virtualExecutor != null) {
+			executor = virtualExecutor;
+			virtual = true;
+			this.threads = -1;
+		}
+		else {
+			AtomicInteger count = new AtomicInteger(0);
+			// programs are handed straight to a thread, a new one is started if none are idle
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+					new SynchronousQueue<>(), (runnable) -> {
+				Thread thread = new Thread(runnable, "Program Thread #" + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			});
+			// idle threads can exit, so an empty server doesn't keep them around
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+			virtual = false;
+			this.threads = threads;
+		}
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor(), if it exists
+	private static ExecutorService createVirtualExecutor() {
+		try {
+			return (ExecutorService) java.util.concurrent.Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (Throwable e) {
+			return null;
+		}
+	}
+
+	// returns false if the program has to wait for one of the owner's other programs to exit
+	boolean submit(ProgramInstance instance, UUID owner) {
+		synchronized (owners) {
+			Owner entry = owners.computeIfAbsent(owner, (k) -> new Owner());
+			if (quota > 0 && entry.running >= quota) {
+				entry.pending.add(instance);
+				waiting.incrementAndGet();
+				return false;
+			}
+			entry.running++;
+		}
+		execute(instance, owner);
+		return true;
+	}
+
+	private void execute(ProgramInstance instance, UUID owner) {
+		executor.execute(() -> {
+			running.incrementAndGet();
+			try {
+				instance.run();
+			}
+			finally {
+				running.decrementAndGet();
+				release(owner);
+			}
+		});
+	}
+
+	// frees a slot for the owner, starting the next program that was waiting for one
+	private void release(UUID owner) {
+		ProgramInstance next;
+		synchronized (owners) {
+			Owner entry = owners.get(owner);
+			next = entry.pending.poll();
+			if (next == null) {
+				entry.running--;
+				if (entry.running == 0)
+					owners.remove(owner);
+				return;
+			}
+			waiting.decrementAndGet();
+		}
+		execute(next, owner);
+	}
+
+	// stops all programs, called when the plugin is disabled
+	public static synchronized void shutdown() {
+		if (INSTANCE != null) {
+			INSTANCE.executor.shutdownNow();
+			INSTANCE = null;
+		}
+	}
+
+	// amount of programs that are currently running
+	public int getRunning() {
+		return running.get();
+	}
+
+	// amount of programs waiting on their owner's quota
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	// amount of threads that are kept around for programs, or -1 if programs are ran on virtual threads
+	public int getThreads() {
+		return threads;
+	}
+
+	// amount of threads that were started past the pool size, because all the pooled threads were busy
+	public int getExtraThreads() {
+		return virtual ? 0 : Math.max(0, ((ThreadPoolExecutor) executor).getPoolSize() - threads);
+	}
+
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	private static class Owner {
+		int running = 0;
+		final Queue<ProgramInstance> pending = new ArrayDeque<>();
+	}
+}
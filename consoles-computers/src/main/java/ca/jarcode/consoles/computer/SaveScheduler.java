@@ -0,0 +1,151 @@
+package ca.jarcode.consoles.computer;
+
+import ca.jarcode.consoles.Computers;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+
+Writes computers to disk on a small pool of background threads.
+
+Saves are split in two: a snapshot of everything that needs to be written is taken on the
+server thread (see ComputerData#save), and the snapshot is then written by one of these
+threads. Saves for the same computer are always written in the order they were taken, but
+different computers are written concurrently, up to the size of the pool.
+
+Anything that touches a computer's files directly should wait for its saves first (await),
+and the plugin waits for every save to finish when it's disabled (shutdown).
+
+ */
+public class SaveScheduler {
+
+	private static SaveScheduler INSTANCE = null;
+
+	public static synchronized SaveScheduler getInstance() {
+		if (INSTANCE == null)
+			INSTANCE = new SaveScheduler(Computers.saveThreads);
+		return INSTANCE;
+	}
+
+	@FunctionalInterface
+	public interface SaveTask<T> {
+		T write() throws IOException;
+	}
+
+	private final ThreadPoolExecutor executor;
+
+	// saves waiting for each computer that is currently being written, by hostname
+	private final Map<String, Queue<Runnable>> queued = new HashMap<>();
+
+	private SaveScheduler(int threads) {
+		AtomicInteger count = new AtomicInteger(0);
+		// not daemon threads, the server should never exit in the middle of writing a computer
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), (runnable) -> new Thread(runnable, "Computer Save Thread #"
+				+ count.incrementAndGet()));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	// queues a write for the given computer, after any other writes that are queued for it
+	public <T> CompletableFuture<T> submit(String hostname, SaveTask<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		Runnable job = () -> {
+			try {
+				future.complete(task.write());
+			}
+			catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		};
+		synchronized (queued) {
+			Queue<Runnable> jobs = queued.get(hostname);
+			// the thread writing this computer will run it next
+			if (jobs != null) {
+				jobs.add(job);
+				return future;
+			}
+			queued.put(hostname, new ArrayDeque<>());
+		}
+		try {
+			executor.execute(() -> drain(hostname, job));
+		}
+		catch (RejectedExecutionException e) {
+			finish(hostname);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	// runs saves for a computer until there are none left, so they're written in order
+	private void drain(String hostname, Runnable job) {
+		while (job != null) {
+			job.run();
+			synchronized (queued) {
+				job = queued.get(hostname).poll();
+				if (job == null)
+					finish(hostname);
+			}
+		}
+	}
+
+	private void finish(String hostname) {
+		synchronized (queued) {
+			queued.remove(hostname);
+			queued.notifyAll();
+		}
+	}
+
+	// blocks until every save queued for the given computer has been written
+	public void await(String hostname) {
+		synchronized (queued) {
+			try {
+				while (queued.containsKey(hostname))
+					queued.wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// waits for saves to a computer if anything has been saved yet, before its files are changed directly
+	public static void awaitSaves(String hostname) {
+		SaveScheduler scheduler;
+		synchronized (SaveScheduler.class) {
+			scheduler = INSTANCE;
+		}
+		if (scheduler != null)
+			scheduler.await(hostname);
+	}
+
+	/**
+	 * Stops accepting saves and waits for every queued save to be written. This is called when the
+	 * plugin is disabled, after the last saves have been queued.
+	 *
+	 * @param timeout the maximum time to wait, in milliseconds
+	 * @return true if every save was written, false if the timeout passed first
+	 */
+	public static boolean shutdown(long timeout) {
+		SaveScheduler scheduler;
+		synchronized (SaveScheduler.class) {
+			scheduler = INSTANCE;
+			INSTANCE = null;
+		}
+		if (scheduler == null)
+			return true;
+		scheduler.executor.shutdown();
+		try {
+			return scheduler.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
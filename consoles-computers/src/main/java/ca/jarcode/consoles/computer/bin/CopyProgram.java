@@ -90,6 +90,10 @@ public class CopyProgram extends FSProvidedProgram {
 		k.contents.put(targetFile, copy(a, computer));
 	}
 	private FSStoredFile fileCopy(FSStoredFile file, Computer computer) throws IOException, InterruptedException {
+		// files that point to a blob can share it, the copy only gets its own data once it's written to
+		String blob = file.getBlob();
+		if (blob != null)
+			return new FSStoredFile(computer, blob);
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		Charset charset = Charset.forName("UTF-8");
 		try (InputStream is = file.createInput()) {
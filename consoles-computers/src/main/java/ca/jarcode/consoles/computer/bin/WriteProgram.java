@@ -4,6 +4,7 @@ import ca.jarcode.consoles.computer.Computer;
 import ca.jarcode.consoles.computer.Terminal;
 import ca.jarcode.consoles.computer.filesystem.*;
 import ca.jarcode.consoles.computer.manual.ProvidedManual;
+import org.apache.commons.io.IOUtils;
 
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -89,12 +90,10 @@ public class WriteProgram extends FSProvidedProgram {
 		if (file instanceof FSStoredFile) {
 			FSStoredFile store = (FSStoredFile) file;
 			if ((Boolean) properties.get("prefix")) {
-				InputStream is = store.createInput();
-				byte[] arr = new byte[is.available()];
-				if (is.read(arr) != arr.length) {
-					println("error: did not read all expected bytes");
+				byte[] arr;
+				try (InputStream is = store.createInput()) {
+					arr = IOUtils.toByteArray(is);
 				}
-				is.close();
 				text += new String(arr, Charset.forName("UTF-8"));
 			}
 			if ((Boolean) properties.get("force") || file.locked()) {
@@ -145,11 +145,20 @@ public class Kernel extends FSProvidedProgram {
 
 		LuaDefaults.loadInto(computer);
 	}
+	// creates a file that points to a shared blob with the given content, until it is written to
 	public static FSStoredFile writtenFile(String text, Computer computer) {
+		byte[] data = text.getBytes(Charset.forName("UTF-8"));
+		try {
+			return new FSStoredFile(computer, BlobStore.getInstance().put(data));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		// fall back to the computer's own file
 		FSStoredFile file = new FSStoredFile(computer);
 		try {
 			OutputStream out = file.createOutput();
-			out.write(text.getBytes(Charset.forName("UTF-8")));
+			out.write(data);
 			out.close();
 		}
 		catch (IOException e) {
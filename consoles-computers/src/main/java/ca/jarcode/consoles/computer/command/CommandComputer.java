@@ -1,18 +1,26 @@
 package ca.jarcode.consoles.computer.command;
 
+import ca.jarcode.consoles.Computers;
 import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.api.ConsoleCreateException;
 import ca.jarcode.consoles.command.CommandBase;
 import ca.jarcode.consoles.computer.Computer;
+import ca.jarcode.consoles.computer.ComputerData;
 import ca.jarcode.consoles.computer.ComputerHandler;
 import ca.jarcode.consoles.computer.ManagedComputer;
+import ca.jarcode.consoles.computer.ProgramScheduler;
 import ca.jarcode.consoles.computer.filesystem.FSBlock;
+import ca.jarcode.consoles.computer.interpreter.ChunkCache;
+import ca.jarcode.consoles.computer.interpreter.InterruptLib;
+import ca.jarcode.consoles.computer.interpreter.SandboxProgram;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.block.BlockFace;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
+import java.util.Comparator;
+import java.util.List;
 import java.util.stream.Collectors;
 
 public class CommandComputer extends CommandBase {
@@ -42,6 +50,51 @@ public class CommandComputer extends CommandBase {
 					.collect(Collectors.joining("\n"))
 					.split("\n");
 			sender.sendMessage(messages);
+			List<ComputerData> pending = ComputerHandler.getInstance().getPending();
+			if (!pending.isEmpty()) {
+				sender.sendMessage(ChatColor.BLUE + "Waiting for their chunk to load:");
+				sender.sendMessage(pending.stream()
+						.map(data -> ChatColor.YELLOW + data.getHostname()
+								+ ":\n    owner: " + data.owner + "\n"
+								+ ":\n    location: " + formatLocation(data.getLocation()))
+						.collect(Collectors.joining("\n"))
+						.split("\n"));
+			}
+		}
+		else if (args[0].equalsIgnoreCase("cache")) {
+			sender.sendMessage(ChatColor.BLUE + "Lua chunk cache:");
+			sender.sendMessage(ChatColor.YELLOW + "chunks: " + ChatColor.WHITE + ChunkCache.size()
+					+ "/" + Computers.chunkCacheSize);
+			sender.sendMessage(ChatColor.YELLOW + "hits: " + ChatColor.WHITE + ChunkCache.getHits());
+			sender.sendMessage(ChatColor.YELLOW + "misses: " + ChatColor.WHITE + ChunkCache.getMisses());
+			sender.sendMessage(ChatColor.YELLOW + "evictions: " + ChatColor.WHITE + ChunkCache.getEvictions());
+		}
+		else if (args[0].equalsIgnoreCase("scheduler")) {
+			ProgramScheduler scheduler = ProgramScheduler.getInstance();
+			sender.sendMessage(ChatColor.BLUE + "Program scheduler:");
+			sender.sendMessage(ChatColor.YELLOW + "threads: " + ChatColor.WHITE
+					+ (scheduler.isVirtual() ? "virtual" : scheduler.getThreads() + " (+" + scheduler.getExtraThreads() + " extra)"));
+			sender.sendMessage(ChatColor.YELLOW + "running: " + ChatColor.WHITE + scheduler.getRunning());
+			sender.sendMessage(ChatColor.YELLOW + "waiting: " + ChatColor.WHITE + scheduler.getWaiting());
+			sender.sendMessage(ChatColor.YELLOW + "setup: " + ChatColor.WHITE
+					+ String.format("%.3fms", SandboxProgram.getAverageSetup()) + " (average)");
+		}
+		else if (args[0].equalsIgnoreCase("top")) {
+			sender.sendMessage(ChatColor.BLUE + "Computers (instructions/s, total, throttled):");
+			ComputerHandler.getInstance().getComputers().stream()
+					.sorted(Comparator.comparingLong((Computer comp) -> comp.getCpu().getRate()).reversed())
+					.limit(5)
+					.forEach(comp -> sender.sendMessage(ChatColor.YELLOW + comp.getHostname() + ": "
+							+ ChatColor.WHITE + comp.getCpu().getRate() + ", " + comp.getCpu().getTotal()
+							+ ", " + comp.getCpu().getThrottled()));
+			sender.sendMessage(ChatColor.BLUE + "Programs (instructions/s, total):");
+			InterruptLib.running().stream()
+					.filter(lib -> lib.getComputer() != null)
+					.sorted(Comparator.comparingLong((InterruptLib lib) -> lib.getAccount().getRate()).reversed())
+					.limit(10)
+					.forEach(lib -> sender.sendMessage(ChatColor.YELLOW + lib.getComputer().getHostname()
+							+ ":" + lib.getName() + ": " + ChatColor.WHITE + lib.getAccount().getRate()
+							+ ", " + lib.getAccount().getTotal()));
 		}
 		else if (args[0].equalsIgnoreCase("remove") && args.length >= 2) {
 			Computer computer = ComputerHandler.getInstance().find(args[1]);
@@ -124,5 +177,11 @@ public class CommandComputer extends CommandBase {
 				"removes the computer with the given hostname");
 		sender.sendMessage(ChatColor.BLUE + "/computer create [N/E/S/W] [hostname]" + ChatColor.WHITE + " - " +
 				"removes the computer with the given hostname");
+		sender.sendMessage(ChatColor.BLUE + "/computer cache" + ChatColor.WHITE + " - " +
+				"shows statistics for the compiled Lua chunk cache");
+		sender.sendMessage(ChatColor.BLUE + "/computer scheduler" + ChatColor.WHITE + " - " +
+				"shows how many programs are running and waiting");
+		sender.sendMessage(ChatColor.BLUE + "/computer top" + ChatColor.WHITE + " - " +
+				"shows the computers and programs executing the most instructions");
 	}
 }
@@ -0,0 +1,156 @@
+package ca.jarcode.consoles.computer.filesystem;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+
+Content-addressed storage for file data that is shared between computers.
+
+Blobs are named after the SHA-1 hash of their content, so identical files (like the default
+Lua programs every computer is flashed with) are only stored once. Stored files that point
+to a blob are read-only views of it, the first write copies the blob into the computer's own
+file (see FSStoredFile).
+
+Reference counts are tracked per computer, not per file: a blob is referenced once by every
+computer that had a file pointing to it when it was last saved. Counts are raised before a
+save is written and lowered after, so a crash can only ever leave a count too high. Blobs
+are never deleted while the server is running, unreferenced blobs are removed the next time
+the store is opened, before any computer is loaded.
+
+ */
+public class BlobStore {
+
+	private static BlobStore INSTANCE = null;
+
+	public static synchronized void init(File folder) {
+		INSTANCE = new BlobStore(folder);
+	}
+
+	public static synchronized BlobStore getInstance() {
+		return INSTANCE;
+	}
+
+	private static final int MAGIC = 0x434A4253; // CJBS
+
+	private final File folder;
+	private final File index;
+
+	private final Map<String, Integer> refs = new HashMap<>();
+	// blobs that are known to be on disk
+	private final Set<String> stored = ConcurrentHashMap.newKeySet();
+
+	private BlobStore(File folder) {
+		this.folder = folder;
+		this.index = new File(folder, "refs.dat");
+		if (!folder.exists() && !folder.mkdirs())
+			throw new RuntimeException("failed to create folder: " + folder.getAbsolutePath());
+		// without counts, nothing can be removed safely
+		if (!index.exists())
+			return;
+		try {
+			readIndex();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		sweep();
+	}
+
+	// stores the data (if it isn't stored already), returning its hash
+	public String put(byte[] data) throws IOException {
+		String hash = Hashing.sha1().hashBytes(data).toString();
+		if (stored.contains(hash))
+			return hash;
+		File file = file(hash);
+		if (!file.exists()) {
+			File parent = file.getParentFile();
+			if (!parent.exists() && !parent.mkdirs() && !parent.exists())
+				throw new IOException("failed to create folder: " + parent.getAbsolutePath());
+			// the hash is only visible once the blob has been fully written
+			File temp = File.createTempFile(hash, ".tmp", parent);
+			try (FileOutputStream out = new FileOutputStream(temp)) {
+				out.write(data);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		stored.add(hash);
+		return hash;
+	}
+
+	public File file(String hash) {
+		return new File(folder, hash.substring(0, 2) + File.separatorChar + hash);
+	}
+
+	public byte[] read(String hash) throws IOException {
+		return Files.readAllBytes(file(hash).toPath());
+	}
+
+	public synchronized void retain(Collection<String> hashes) {
+		for (String hash : hashes)
+			refs.merge(hash, 1, Integer::sum);
+	}
+
+	public synchronized void release(Collection<String> hashes) {
+		for (String hash : hashes)
+			refs.computeIfPresent(hash, (k, count) -> count <= 1 ? null : count - 1);
+	}
+
+	public synchronized int references(String hash) {
+		return refs.getOrDefault(hash, 0);
+	}
+
+	// writes the reference counts to disk
+	public synchronized void writeIndex() throws IOException {
+		File temp = new File(folder, index.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(refs.size());
+			for (Map.Entry<String, Integer> entry : refs.entrySet()) {
+				out.write(HashCode.fromString(entry.getKey()).asBytes());
+				out.writeInt(entry.getValue());
+			}
+		}
+		Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void readIndex() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("not a blob index: " + index.getAbsolutePath());
+			int size = in.readInt();
+			byte[] hash = new byte[20];
+			for (int t = 0; t < size; t++) {
+				in.readFully(hash);
+				refs.put(HashCode.fromBytes(hash).toString(), in.readInt());
+			}
+		}
+	}
+
+	// removes blobs that no computer references, and anything left over from writes that were cut off
+	private void sweep() {
+		File[] buckets = folder.listFiles(File::isDirectory);
+		if (buckets == null)
+			return;
+		for (File bucket : buckets) {
+			File[] files = bucket.listFiles();
+			if (files == null)
+				continue;
+			for (File file : files) {
+				if (!refs.containsKey(file.getName()) && !file.delete())
+					file.deleteOnExit();
+			}
+		}
+	}
+}
@@ -22,6 +22,9 @@ public abstract class FSBlock {
 	// instead of serializing these with classes, we assign ids in the block implementations to refer to types
 	final byte id;
 
+	// whether this block has changed since it was last saved, new blocks always need to be saved
+	volatile boolean dirty = true;
+
 	public FSBlock(byte id) {
 		this.uuid = UUID.randomUUID();
 		this.id = id;
@@ -58,11 +61,19 @@ public abstract class FSBlock {
 	public String getOwner() {
 		return owner;
 	}
+	// marks this block as changed, so it is written on the next save
+	public void markDirty() {
+		dirty = true;
+	}
+	public boolean isDirty() {
+		return dirty;
+	}
 	// mask(0x7E) is a fast way to grant all permissions
 	// mask(0x68) is the default (read, write for owner, read for user)
 	// mask(0x78) is the default for root (read, write, and execute for root, read for user)
 	public void mask(byte v) {
 		permissions |= v;
+		dirty = true;
 	}
 	// checks the bit at a certain index of the permissions byte
 	public boolean check(int i) {
@@ -86,18 +97,21 @@ public abstract class FSBlock {
 			if (r) permissions |= 0x40; else permissions &= ~0x40;
 		if (group == FSGroup.ALL)
 			if (r) permissions |= 0x08; else permissions &= ~0x08;
+		dirty = true;
 	}
 	public void setWritable(FSGroup group, boolean w) {
 		if (group == FSGroup.OWNER)
 			if (w) permissions |= 0x20; else permissions &= ~0x20;
 		if (group == FSGroup.ALL)
 			if (w) permissions |= 0x04; else permissions &= ~0x04;
+		dirty = true;
 	}
 	public void setExecutable(FSGroup group, boolean x) {
 		if (group == FSGroup.OWNER)
 			if (x) permissions |= 0x10; else permissions &= ~0x10;
 		if (group == FSGroup.ALL)
 			if (x) permissions |= 0x02; else permissions &= ~0x02;
+		dirty = true;
 	}
 	public static String[] section(String text, String regex) {
 		List<String> list = new ArrayList<>();
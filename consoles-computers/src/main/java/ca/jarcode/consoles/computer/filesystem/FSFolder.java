@@ -1,7 +1,15 @@
 package ca.jarcode.consoles.computer.filesystem;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 @SuppressWarnings("SpellCheckingInspection")
 public class FSFolder extends FSBlock {
@@ -12,11 +20,27 @@ public class FSFolder extends FSBlock {
 	// Removing from these will cause the object to 'technically' be deleted from the filesystem, having no reference
 	// from the root tree, but java still needs to clean it up.
 	// this is sychronized because of the possibility of changes from multiple threads at once
+	// changes to the contents mark this folder as dirty, so it is written on the next save
+	// folders that were loaded from a saved filesystem only read their contents when they are first used
 	public ConcurrentHashMap<String, FSBlock> contents = null;
 
+	@FunctionalInterface
+	interface ContentLoader {
+		void load(BiConsumer<String, FSBlock> consumer) throws IOException;
+	}
+
 	public FSFolder() {
 		super(ID);
-		this.contents = new ConcurrentHashMap<>();
+		this.contents = new Contents();
+	}
+	// creates a folder that loads its contents on first use
+	FSFolder(ContentLoader loader) {
+		this();
+		((Contents) contents).loader = loader;
+	}
+	// whether the contents of this folder have been loaded, checking this doesn't load them
+	public boolean isLoaded() {
+		return ((Contents) contents).loader == null;
 	}
 	public FSBlock get(String path) throws FileNotFoundException {
 		if (path.trim().equals("/") || path.trim().isEmpty())
@@ -67,4 +91,185 @@ public class FSFolder extends FSBlock {
 		}
 		return false;
 	}
+
+	private class Contents extends ConcurrentHashMap<String, FSBlock> {
+
+		private volatile ContentLoader loader = null;
+
+		private void load() {
+			if (loader == null)
+				return;
+			synchronized (this) {
+				if (loader == null)
+					return;
+				try {
+					// loaded entries are what was saved, so they don't make the folder dirty
+					loader.load(super::put);
+				}
+				catch (IOException e) {
+					// leave the loader in place, so a folder that failed to load is never saved as empty
+					throw new RuntimeException("failed to load folder: " + uuid, e);
+				}
+				loader = null;
+			}
+		}
+		@Override
+		public FSBlock get(Object key) {
+			load();
+			return super.get(key);
+		}
+		@Override
+		public boolean containsKey(Object key) {
+			load();
+			return super.containsKey(key);
+		}
+		@Override
+		public boolean containsValue(Object value) {
+			load();
+			return super.containsValue(value);
+		}
+		@Override
+		public int size() {
+			load();
+			return super.size();
+		}
+		@Override
+		public long mappingCount() {
+			load();
+			return super.mappingCount();
+		}
+		@Override
+		public boolean isEmpty() {
+			load();
+			return super.isEmpty();
+		}
+		@Override
+		public KeySetView<String, FSBlock> keySet() {
+			load();
+			return super.keySet();
+		}
+		@Override
+		public Collection<FSBlock> values() {
+			load();
+			return super.values();
+		}
+		@Override
+		public Set<Map.Entry<String, FSBlock>> entrySet() {
+			load();
+			return super.entrySet();
+		}
+		@Override
+		public Enumeration<String> keys() {
+			load();
+			return super.keys();
+		}
+		@Override
+		public Enumeration<FSBlock> elements() {
+			load();
+			return super.elements();
+		}
+		@Override
+		public void forEach(BiConsumer<? super String, ? super FSBlock> action) {
+			load();
+			super.forEach(action);
+		}
+		@Override
+		public String toString() {
+			load();
+			return super.toString();
+		}
+		@Override
+		public FSBlock put(String key, FSBlock value) {
+			load();
+			FSBlock previous = super.put(key, value);
+			if (previous != value)
+				dirty = true;
+			return previous;
+		}
+		@Override
+		public FSBlock putIfAbsent(String key, FSBlock value) {
+			load();
+			FSBlock previous = super.putIfAbsent(key, value);
+			if (previous == null)
+				dirty = true;
+			return previous;
+		}
+		@Override
+		public void putAll(Map<? extends String, ? extends FSBlock> map) {
+			load();
+			super.putAll(map);
+			dirty = true;
+		}
+		@Override
+		public FSBlock remove(Object key) {
+			load();
+			FSBlock previous = super.remove(key);
+			if (previous != null)
+				dirty = true;
+			return previous;
+		}
+		@Override
+		public boolean remove(Object key, Object value) {
+			load();
+			boolean removed = super.remove(key, value);
+			if (removed)
+				dirty = true;
+			return removed;
+		}
+		@Override
+		public FSBlock replace(String key, FSBlock value) {
+			load();
+			FSBlock previous = super.replace(key, value);
+			if (previous != null && previous != value)
+				dirty = true;
+			return previous;
+		}
+		@Override
+		public boolean replace(String key, FSBlock oldValue, FSBlock newValue) {
+			load();
+			boolean replaced = super.replace(key, oldValue, newValue);
+			if (replaced)
+				dirty = true;
+			return replaced;
+		}
+		@Override
+		public void clear() {
+			load();
+			super.clear();
+			dirty = true;
+		}
+		@Override
+		public FSBlock compute(String key,
+		                       BiFunction<? super String, ? super FSBlock, ? extends FSBlock> function) {
+			load();
+			dirty = true;
+			return super.compute(key, function);
+		}
+		@Override
+		public FSBlock computeIfAbsent(String key, Function<? super String, ? extends FSBlock> function) {
+			load();
+			dirty = true;
+			return super.computeIfAbsent(key, function);
+		}
+		@Override
+		public FSBlock computeIfPresent(String key,
+		                                BiFunction<? super String, ? super FSBlock, ? extends FSBlock> function) {
+			load();
+			dirty = true;
+			return super.computeIfPresent(key, function);
+		}
+		@Override
+		public FSBlock merge(String key, FSBlock value,
+		                     BiFunction<? super FSBlock, ? super FSBlock, ? extends FSBlock> function) {
+			load();
+			dirty = true;
+			return super.merge(key, value, function);
+		}
+		@Override
+		public void replaceAll(BiFunction<? super String, ? super FSBlock, ? extends FSBlock> function) {
+			load();
+			dirty = true;
+			super.replaceAll(function);
+		}
+	}
 }
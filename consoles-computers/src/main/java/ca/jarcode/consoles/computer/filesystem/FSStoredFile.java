@@ -1,24 +1,32 @@
 package ca.jarcode.consoles.computer.filesystem;
 
 import ca.jarcode.consoles.computer.Computer;
-import org.apache.commons.io.IOUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
 import java.util.function.Supplier;
 
 /**
  * Some sort of stored file. Legacy files are stored in memory, standard stored files are read from a file
- * on the disk.
+ * on the disk. Stored files can also point to a shared blob (see BlobStore), which is copied to the
+ * computer's own file the first time it is written to.
  */
 public class FSStoredFile extends FSFile {
 
 	private static final byte ID = 0x08;
+	private static final int WRITE_BUFFER_SIZE = 8192;
 
 	public StoredOutputStream out;
 	public volatile boolean locked = false;
 	private final Object LOCK = new Object();
 	private final Supplier<StoredOutputStream> streamFactory;
+	// hash of the shared blob this file points to, or null if the data is in the computer's own file
+	private volatile String blob = null;
 
 	public FSStoredFile(Computer source) {
 		super(ID);
@@ -30,6 +38,19 @@ public class FSStoredFile extends FSFile {
 		streamFactory = () -> fileStream(source.linkFile(this));
 		out = streamFactory.get();
 	}
+	// files that point to a blob don't have a file of their own until they are written to
+	public FSStoredFile(Computer source, String blob) {
+		super(ID);
+		streamFactory = () -> fileStream(source.linkFile(this));
+		this.blob = blob;
+		out = blobStream(BlobStore.getInstance().file(blob));
+	}
+	public FSStoredFile(Computer source, UUID uuid, String blob) {
+		super(ID, uuid);
+		streamFactory = () -> fileStream(source.linkFile(this));
+		this.blob = blob;
+		out = blobStream(BlobStore.getInstance().file(blob));
+	}
 	// legacy
 	@Deprecated
 	public FSStoredFile(byte[] data) {
@@ -61,8 +82,14 @@ public class FSStoredFile extends FSFile {
 	@Override
 	public OutputStream createOutput() {
 		locked = true;
-		out.dispose();
-		out = streamFactory.get();
+		synchronized (LOCK) {
+			if (blob != null)
+				detach(false);
+			else {
+				out.dispose();
+				out = streamFactory.get();
+			}
+		}
 		return out;
 	}
 
@@ -70,22 +97,70 @@ public class FSStoredFile extends FSFile {
 	// this is contrary to normal unix file locking behaviour, we just assume strict locking.
 	public OutputStream getOutput() {
 		if (locked) return null;
+		synchronized (LOCK) {
+			// this stream appends, so the blob has to be copied first
+			if (blob != null)
+				detach(true);
+		}
 		return out;
 	}
 
+	// the hash of the blob this file points to, or null if it has its own data
+	public String getBlob() {
+		return blob;
+	}
+
+	// copy-on-write, gives this file its own data (a copy of the blob, or nothing) so it can be written to
+	private void detach(boolean copy) {
+		String hash = blob;
+		StoredOutputStream next = streamFactory.get();
+		// clear anything that was left in the computer's own file
+		next.dispose();
+		next = streamFactory.get();
+		try {
+			if (copy)
+				next.write(BlobStore.getInstance().read(hash));
+		}
+		catch (IOException e) {
+			next.dispose();
+			throw new RuntimeException(e);
+		}
+		out = next;
+		blob = null;
+		// the serialized block no longer points to the blob
+		markDirty();
+	}
+
 	@Override
 	public int getSize() {
 		return 0;
 	}
 
-	// captures the data at the given point, allowing data to still be written
+	// reads the data without copying it, data written after the stream is opened can still be read from it
 	@Override
 	public InputStream createInput() {
-		byte[] data;
 		synchronized (LOCK) {
-			data = out.getData();
+			try {
+				return out.openInput();
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	// writes anything that is still buffered to the file, so streams that are reading it can see it
+	public void flush() throws IOException {
+		synchronized (LOCK) {
+			out.flush();
+		}
+	}
+
+	// the size of the file's data, in bytes
+	public long length() {
+		synchronized (LOCK) {
+			return out.length();
 		}
-		return new ByteArrayInputStream(data);
 	}
 
 	@Override
@@ -121,93 +196,194 @@ public class FSStoredFile extends FSFile {
 				return out == null ? new byte[0] : out.toByteArray();
 			}
 			@Override
+			public InputStream openInput() {
+				return new ByteArrayInputStream(getData());
+			}
+			@Override
+			public long length() {
+				return out == null ? 0 : out.size();
+			}
+			@Override
 			public void dispose() {
 				out = null;
 			}
 		};
 	}
+	// read-only view of a blob, writes cause the file to be detached from the blob first
+	private StoredOutputStream blobStream(File file) {
+		return new StoredOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				synchronized (LOCK) {
+					if (blob != null)
+						detach(true);
+				}
+				out.write(b);
+			}
+			@SuppressWarnings("NullableProblems")
+			@Override
+			public void write(byte b[], int off, int len) throws IOException {
+				synchronized (LOCK) {
+					if (blob != null)
+						detach(true);
+				}
+				out.write(b, off, len);
+			}
+			@Override
+			public void close() {
+				locked = false;
+			}
+			@Override
+			public byte[] getData() {
+				try {
+					return Files.readAllBytes(file.toPath());
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+					return new byte[0];
+				}
+			}
+			@Override
+			public InputStream openInput() throws IOException {
+				return new StoredInputStream(file);
+			}
+			@Override
+			public long length() {
+				return file.length();
+			}
+			@Override
+			public void dispose() {}
+		};
+	}
+	// appends to the file through a buffer, which is flushed when the stream is closed or the file is read
 	private StoredOutputStream fileStream(File file) {
-		try {
-			return new StoredOutputStream() {
-				public FileOutputStream out = new FileOutputStream(file, true);
-				@Override
-				public void close() {
+		return new StoredOutputStream() {
+			// opened when the file is first written to, and re-opened if written to after being closed
+			private FileChannel channel = null;
+			private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+			private FileChannel channel() throws IOException {
+				if (channel == null || !channel.isOpen())
+					channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+							StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+				return channel;
+			}
+			// has to be called while holding the lock
+			private void flushBuffer() throws IOException {
+				if (buffer.position() == 0)
+					return;
+				buffer.flip();
+				try {
+					FileChannel channel = channel();
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+				}
+				finally {
+					buffer.clear();
+				}
+			}
+			@Override
+			public void close() {
+				synchronized (LOCK) {
 					try {
-						out.close();
+						flushBuffer();
+						if (channel != null)
+							channel.close();
 					} catch (IOException e) {
 						e.printStackTrace();
 					}
-					locked = false;
 				}
-				@Override
-				public void write(int b) {
-					synchronized (LOCK) {
-						writeUnlocked(b);
-					}
+				locked = false;
+			}
+			@Override
+			public void flush() throws IOException {
+				synchronized (LOCK) {
+					flushBuffer();
 				}
-				public void writeUnlocked(int b) {
-					try {
-						out.write(b);
-					} catch (IOException e) {
-						try {
-							out = new FileOutputStream(file, true);
-						}
-						catch (Exception e1) {
-							throw new RuntimeException(e1);
-						}
-					}
+			}
+			@Override
+			public void write(int b) throws IOException {
+				synchronized (LOCK) {
+					if (!buffer.hasRemaining())
+						flushBuffer();
+					buffer.put((byte) b);
 				}
-				@SuppressWarnings("NullableProblems")
-				@Override
-				public void write(byte b[], int off, int len) throws IOException {
-					if (b == null) {
-						throw new NullPointerException();
-					} else if ((off < 0) || (off > b.length) || (len < 0) ||
-							((off + len) > b.length) || ((off + len) < 0)) {
-						throw new IndexOutOfBoundsException();
-					} else if (len == 0) {
-						return;
-					}
-					for (int i = 0 ; i < len ; i++) {
-						writeUnlocked(b[off + i]);
-					}
+			}
+			@SuppressWarnings("NullableProblems")
+			@Override
+			public void write(byte b[], int off, int len) throws IOException {
+				if (b == null) {
+					throw new NullPointerException();
+				} else if ((off < 0) || (off > b.length) || (len < 0) ||
+						((off + len) > b.length) || ((off + len) < 0)) {
+					throw new IndexOutOfBoundsException();
+				} else if (len == 0) {
+					return;
 				}
-				@Override
-				public byte[] getData() {
-					try (FileInputStream in = new FileInputStream(file)) {
-						byte[] data = new byte[in.available()];
-						IOUtils.readFully(in, data);
-						return data;
-					}
-					catch (IOException e) {
-						e.printStackTrace();
-						return new byte[0];
+				synchronized (LOCK) {
+					if (len > buffer.remaining())
+						flushBuffer();
+					// large writes skip the buffer
+					if (len >= buffer.capacity()) {
+						ByteBuffer wrapped = ByteBuffer.wrap(b, off, len);
+						FileChannel channel = channel();
+						while (wrapped.hasRemaining())
+							channel.write(wrapped);
 					}
+					else buffer.put(b, off, len);
 				}
-				@Override
-				public void dispose() {
+			}
+			@Override
+			public byte[] getData() {
+				try {
+					flush();
+					return Files.readAllBytes(file.toPath());
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+					return new byte[0];
+				}
+			}
+			@Override
+			public InputStream openInput() throws IOException {
+				flush();
+				return new StoredInputStream(file);
+			}
+			@Override
+			public long length() {
+				synchronized (LOCK) {
+					return file.length() + buffer.position();
+				}
+			}
+			@Override
+			public void dispose() {
+				synchronized (LOCK) {
+					buffer.clear();
 					try {
-						out.close();
+						if (channel != null)
+							channel.close();
 					} catch (IOException e) {
 						e.printStackTrace();
 					}
 					try {
-						// open and close file, clears the buffer and data on disk
-						FileOutputStream temp = new FileOutputStream(file, false);
-						temp.close();
+						// replaced with an empty file instead of truncated, so streams that are still
+						// reading it keep the old data (and mapped regions stay valid)
+						File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+						new FileOutputStream(temp).close();
+						Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+								StandardCopyOption.ATOMIC_MOVE);
 					}
 					catch (IOException e) {
-						// failed to delete file
+						// failed to clear file
 						e.printStackTrace();
 					}
 				}
-			};
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+			}
+		};
 	}
 	private abstract class StoredOutputStream extends OutputStream {
 		public abstract byte[] getData();
+		public abstract InputStream openInput() throws IOException;
+		public abstract long length();
 		public abstract void dispose();
 	}
 }
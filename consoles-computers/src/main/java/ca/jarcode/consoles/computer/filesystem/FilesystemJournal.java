@@ -0,0 +1,396 @@
+package ca.jarcode.consoles.computer.filesystem;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/*
+
+Append-only storage for a serialized filesystem.
+
+Instead of rewriting the entire filesystem on every save, only the blocks that changed are
+appended to the end of the journal. When the journal is read, the last record for each block
+is the one that is used. Blocks that were replaced (or are no longer in the filesystem) leave
+stale records behind, so the journal is compacted (rewritten with only the current blocks)
+once it grows too large.
+
+Format:
+
+- header: magic (int), version (byte)
+- records: type (byte), uuid (two longs), then for blocks: length (int), crc32 of the data (int), data
+
+Every save ends with a root record, records are only used once the root record of their save
+has been read. A save that was cut off halfway is ignored (and truncated on the next save),
+leaving the filesystem as it was after the previous save.
+
+The index remembers where the latest record of each block is, so single blocks can be read
+without reading the rest of the journal (folders are loaded this way when they're first used).
+
+ */
+public class FilesystemJournal {
+
+	private static final int MAGIC = 0x434A4653; // CJFS
+	private static final byte VERSION = 1;
+
+	private static final byte RECORD_BLOCK = 1;
+	private static final byte RECORD_ROOT = 2;
+
+	private static final int HEADER_SIZE = 5;
+	// type, uuid, length, checksum
+	private static final int BLOCK_OVERHEAD = 1 + 16 + 4 + 4;
+	private static final int ROOT_SIZE = 1 + 16;
+
+	// journals smaller than this are never compacted
+	private static final long COMPACT_MIN_SIZE = 64 * 1024;
+	// compact once the journal is this many times larger than the blocks that are still used
+	private static final int COMPACT_RATIO = 2;
+
+	private final File file;
+
+	// writes are serialized on this lock, and only hold the journal's own monitor while the new index is
+	// published. Reads of single blocks never wait for a write (or its fsync) to finish.
+	private final Object WRITE_LOCK = new Object();
+
+	// the latest record for each block in the journal, this can be checked while the journal is being written to
+	private final Map<UUID, Record> index = new ConcurrentHashMap<>();
+	private UUID root = null;
+	// valid length of the journal file
+	private long size = 0;
+	private volatile boolean opened = false;
+
+	public FilesystemJournal(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized boolean exists() {
+		return file.exists();
+	}
+
+	// whether the journal has a record for the given block, this doesn't wait for writes in progress
+	public boolean contains(UUID uuid) {
+		if (!opened)
+			open();
+		return index.containsKey(uuid);
+	}
+
+	// size of the latest record for the given block, or 0 if there is none
+	public synchronized long recordSize(UUID uuid) {
+		open();
+		Record record = index.get(uuid);
+		return record == null ? 0 : record.length + BLOCK_OVERHEAD;
+	}
+
+	public synchronized UUID getRoot() {
+		open();
+		return root;
+	}
+
+	public synchronized long size() {
+		open();
+		return size;
+	}
+
+	// whether the journal should be rewritten, given the size of the blocks that are still in use
+	public synchronized boolean shouldCompact(long live) {
+		open();
+		return size == 0 || root == null || !file.exists() || (size > COMPACT_MIN_SIZE && size > live * COMPACT_RATIO);
+	}
+
+	// builds the index without keeping any block data
+	private synchronized void open() {
+		if (opened)
+			return;
+		opened = true;
+		if (!file.exists())
+			return;
+		try {
+			read(null);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the entire journal, passing the latest data of each block to the consumer.
+	 *
+	 * @param consumer the consumer for block data, or null to only build the index
+	 * @return the UUID of the root block
+	 * @throws IOException if the journal could not be read
+	 */
+	public synchronized UUID read(BiConsumer<UUID, byte[]> consumer) throws IOException {
+		opened = true;
+		index.clear();
+		root = null;
+		size = 0;
+		Scan scan = scan(consumer);
+		index.putAll(scan.index);
+		root = scan.root;
+		size = scan.size;
+		return root;
+	}
+
+	// reads the journal without changing the index, the file can't be written to while this is running
+	private Scan scan(BiConsumer<UUID, byte[]> consumer) throws IOException {
+		Scan scan = new Scan();
+		Map<UUID, byte[]> latest = consumer == null ? null : new HashMap<>();
+		// records of the save that is being read, these only count once its root record is read
+		Map<UUID, Record> pending = new HashMap<>();
+		Map<UUID, byte[]> pendingData = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("not a filesystem journal: " + file.getAbsolutePath());
+			byte version = in.readByte();
+			if (version != VERSION)
+				throw new IOException("unsupported journal version: " + version);
+			long position = HEADER_SIZE;
+			scan.size = position;
+			CRC32 crc = new CRC32();
+			while (true) {
+				int type = in.read();
+				if (type == -1)
+					break;
+				try {
+					UUID uuid = new UUID(in.readLong(), in.readLong());
+					if (type == RECORD_ROOT) {
+						position += ROOT_SIZE;
+						// the save is complete
+						scan.root = uuid;
+						scan.size = position;
+						scan.index.putAll(pending);
+						pending.clear();
+						if (latest != null) {
+							latest.putAll(pendingData);
+							pendingData.clear();
+						}
+					}
+					else if (type == RECORD_BLOCK) {
+						int length = in.readInt();
+						int checksum = in.readInt();
+						if (length < 0 || length > file.length())
+							break;
+						byte[] data = new byte[length];
+						in.readFully(data);
+						crc.reset();
+						crc.update(data, 0, length);
+						if ((int) crc.getValue() != checksum)
+							break;
+						pending.put(uuid, new Record(position + BLOCK_OVERHEAD, length));
+						if (latest != null)
+							pendingData.put(uuid, data);
+						position += BLOCK_OVERHEAD + length;
+					}
+					else break;
+				}
+				// the last save was cut off, everything before it is still valid
+				catch (EOFException e) {
+					break;
+				}
+			}
+		}
+		if (latest != null)
+			latest.forEach(consumer);
+		return scan;
+	}
+
+	/**
+	 * Appends blocks to the end of the journal.
+	 *
+	 * @param root the root block of the filesystem
+	 * @param blocks the serialized blocks that changed
+	 * @throws IOException if the blocks could not be written
+	 */
+	public void append(UUID root, Map<UUID, byte[]> blocks) throws IOException {
+		synchronized (WRITE_LOCK) {
+			long size;
+			synchronized (this) {
+				open();
+				size = this.size;
+				// the file could have been deleted (or never written) since we last read it
+				if (size != 0 && file.exists() && blocks.isEmpty() && root.equals(this.root))
+					return;
+			}
+			if (size == 0 || !file.exists()) {
+				rewrite(root, blocks);
+				return;
+			}
+			// readers only use records before the current size, so this can be written while they read
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				// drop anything after the last valid record
+				raf.setLength(size);
+				raf.seek(size);
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(buffer);
+				writeRecords(out, root, blocks);
+				out.flush();
+				raf.write(buffer.toByteArray());
+				raf.getFD().sync();
+			}
+			synchronized (this) {
+				index(size, blocks);
+				this.size = size + recordsSize(root, blocks);
+				this.root = root;
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the journal with only the blocks that are still used. Blocks that did not change are copied
+	 * from their latest record in the journal.
+	 *
+	 * @param root the root block of the filesystem
+	 * @param changed the serialized blocks that changed
+	 * @param live all of the blocks in the filesystem
+	 * @throws IOException if the journal could not be read or written
+	 */
+	public void compact(UUID root, Map<UUID, byte[]> changed, Set<UUID> live) throws IOException {
+		synchronized (WRITE_LOCK) {
+			Map<UUID, byte[]> blocks = new LinkedHashMap<>();
+			if (!changed.keySet().containsAll(live)) {
+				if (!exists()) {
+					// nothing is stored anymore, the next save will have to write everything
+					synchronized (this) {
+						opened = true;
+						index.clear();
+						size = 0;
+					}
+					throw new FileNotFoundException(file.getAbsolutePath());
+				}
+				scan((uuid, data) -> {
+					if (live.contains(uuid) && !changed.containsKey(uuid))
+						blocks.put(uuid, data);
+				});
+			}
+			blocks.putAll(changed);
+			for (UUID uuid : live) {
+				if (!blocks.containsKey(uuid))
+					throw new IOException("block missing from journal: " + uuid);
+			}
+			rewrite(root, blocks);
+		}
+	}
+
+	/**
+	 * Replaces the journal with the given blocks.
+	 *
+	 * @param root the root block of the filesystem
+	 * @param blocks all of the serialized blocks in the filesystem
+	 * @throws IOException if the journal could not be written
+	 */
+	public void rewrite(UUID root, Map<UUID, byte[]> blocks) throws IOException {
+		synchronized (WRITE_LOCK) {
+			File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+			try (FileOutputStream stream = new FileOutputStream(temp)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+				out.writeInt(MAGIC);
+				out.writeByte(VERSION);
+				writeRecords(out, root, blocks);
+				out.flush();
+				stream.getFD().sync();
+			}
+			// the file and its index are replaced together, so blocks are never read from the wrong file
+			synchronized (this) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				opened = true;
+				index.clear();
+				index(HEADER_SIZE, blocks);
+				this.root = root;
+				size = HEADER_SIZE + recordsSize(root, blocks);
+			}
+		}
+	}
+
+	// indexes blocks that were written by writeRecords, starting at the given position
+	private void index(long position, Map<UUID, byte[]> blocks) {
+		for (Map.Entry<UUID, byte[]> entry : blocks.entrySet()) {
+			int length = entry.getValue().length;
+			index.put(entry.getKey(), new Record(position + BLOCK_OVERHEAD, length));
+			position += BLOCK_OVERHEAD + length;
+		}
+	}
+
+	/**
+	 * Reads the latest data of a single block from the journal, without reading anything else. This only
+	 * waits for a write to publish its index, not for the write itself.
+	 *
+	 * @param uuid the block to read
+	 * @return the serialized block
+	 * @throws IOException if the journal has no record for the block, or it could not be read
+	 */
+	public synchronized byte[] readBlock(UUID uuid) throws IOException {
+		open();
+		Record record = index.get(uuid);
+		if (record == null)
+			throw new IOException("Missing block: " + uuid);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			// length and checksum come right before the data
+			raf.seek(record.offset - 8);
+			int length = raf.readInt();
+			int checksum = raf.readInt();
+			if (length != record.length)
+				throw new IOException("journal changed while reading block: " + uuid);
+			byte[] data = new byte[length];
+			raf.readFully(data);
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			if ((int) crc.getValue() != checksum)
+				throw new IOException("corrupt block: " + uuid);
+			return data;
+		}
+	}
+
+	private void writeRecords(DataOutputStream out, UUID root, Map<UUID, byte[]> blocks) throws IOException {
+		CRC32 crc = new CRC32();
+		for (Map.Entry<UUID, byte[]> entry : blocks.entrySet()) {
+			byte[] data = entry.getValue();
+			crc.reset();
+			crc.update(data, 0, data.length);
+			out.writeByte(RECORD_BLOCK);
+			out.writeLong(entry.getKey().getMostSignificantBits());
+			out.writeLong(entry.getKey().getLeastSignificantBits());
+			out.writeInt(data.length);
+			out.writeInt((int) crc.getValue());
+			out.write(data);
+		}
+		// the root is written last, so it only changes once all of its blocks are written
+		out.writeByte(RECORD_ROOT);
+		out.writeLong(root.getMostSignificantBits());
+		out.writeLong(root.getLeastSignificantBits());
+	}
+
+	// where the data of a block is in the journal
+	private static class Record {
+
+		final long offset;
+		final int length;
+
+		Record(long offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	// the result of reading a journal
+	private static class Scan {
+
+		final Map<UUID, Record> index = new HashMap<>();
+		UUID root = null;
+		long size = 0;
+	}
+
+	private static long recordsSize(UUID root, Map<UUID, byte[]> blocks) {
+		long size = ROOT_SIZE;
+		for (byte[] data : blocks.values())
+			size += BLOCK_OVERHEAD + data.length;
+		return size;
+	}
+}
@@ -1,12 +1,12 @@
 package ca.jarcode.consoles.computer.filesystem;
 
 import ca.jarcode.consoles.computer.Computer;
+import com.google.common.hash.HashCode;
 
 import java.io.*;
 import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -26,6 +26,13 @@ public class SerializedFilesystem {
 
 	private UUID root;
 
+	// when reading from the computer's journal, blocks are only read from it when they're needed, and folders
+	// are created empty and load their contents the first time they're used
+	private boolean lazy = false;
+
+	// blobs referenced by the files that have been deserialized
+	private Set<String> blobs = new HashSet<>();
+
 	public SerializedFilesystem(Computer computer) {
 		this.computer = computer;
 	}
@@ -50,16 +57,21 @@ public class SerializedFilesystem {
 			}
 		});
 
-		// standard files, stored on the server itself
+		// standard files, stored on the server itself. If the file points to a shared blob, the data is its hash.
 		register((byte) 0x08, new BlockSerializer<FSStoredFile>() {
 			@Override
 			public byte[] serialize(FSStoredFile type) {
-				return new byte[0];
+				String blob = type.getBlob();
+				return blob == null ? new byte[0] : HashCode.fromString(blob).asBytes();
 			}
 
 			@Override
 			public FSStoredFile deserialize(byte[] data, UUID uuid) {
-				return new FSStoredFile(computer, uuid);
+				if (data.length == 0)
+					return new FSStoredFile(computer, uuid);
+				String blob = HashCode.fromBytes(data).toString();
+				blobs.add(blob);
+				return new FSStoredFile(computer, uuid, blob);
 			}
 		});
 		// this is a bit of an exception to our serialization process. We went users to be able to screw up their
@@ -103,26 +115,12 @@ public class SerializedFilesystem {
 
 			@Override
 			public FSFolder deserialize(byte[] data, UUID uuid) {
-				ByteArrayInputStream buffer = new ByteArrayInputStream(data);
-				DataInputStream in = new DataInputStream(buffer);
+				// only the entries are kept, the blocks they point to are read once the folder is used
+				if (lazy)
+					return new FSFolder((consumer) -> readEntries(data, consumer));
 				FSFolder folder = new FSFolder();
 				try {
-					while (buffer.available() > 0) {
-						int len = in.readInt(); // key length
-						byte[] arr = new byte[len];
-						for (int t = 0; t < len; t++) {
-							arr[t] = (byte) in.read();
-						}
-						String key = new String(arr, Charset.forName("UTF-8")); // key
-						long most = in.readLong();
-						long least = in.readLong();
-						UUID blockId = new UUID(most, least); // the UUID of the block this key is assigned to
-
-						// now, we grab the block for the UUID of this key! This means everything will be recursively
-						// deserialized if it doesn't already exist.
-						FSBlock block = SerializedFilesystem.this.deserialize(blockId);
-						folder.contents.put(key, block);
-					}
+					readEntries(data, folder.contents::put);
 				}
 				// won't happen
 				catch (IOException e) {
@@ -132,6 +130,28 @@ public class SerializedFilesystem {
 			}
 		});
 	}
+	private void readEntries(byte[] data, BiConsumer<String, FSBlock> consumer) throws IOException {
+		ByteArrayInputStream buffer = new ByteArrayInputStream(data);
+		DataInputStream in = new DataInputStream(buffer);
+		while (buffer.available() > 0) {
+			int len = in.readInt(); // key length
+			byte[] arr = new byte[len];
+			for (int t = 0; t < len; t++) {
+				arr[t] = (byte) in.read();
+			}
+			String key = new String(arr, Charset.forName("UTF-8")); // key
+			long most = in.readLong();
+			long least = in.readLong();
+			UUID blockId = new UUID(most, least); // the UUID of the block this key is assigned to
+
+			// now, we grab the block for the UUID of this key! This means everything will be recursively
+			// deserialized if it doesn't already exist.
+			FSBlock block = deserialize(blockId);
+			if (block == null)
+				throw new IOException("failed to read block: " + blockId);
+			consumer.accept(key, block);
+		}
+	}
 	private <T extends FSBlock> void register(byte b, BlockSerializer<T> serializer) {
 		map.put(b, serializer);
 	}
@@ -198,20 +218,225 @@ public class SerializedFilesystem {
 					});
 		}
 	}
-	public FSBlock deserialize() throws IOException {
+	/**
+	 * Takes a snapshot of the blocks that changed since the last save, which can then be written to the journal
+	 * from another thread. This has to be called from the thread that modifies the filesystem.
+	 *
+	 * @param journal the journal the snapshot will be written to
+	 * @return the snapshot
+	 */
+	public Snapshot snapshot(FilesystemJournal journal) {
+		FSBlock root = computer.getRoot();
+		Snapshot snapshot = new Snapshot(journal, root.uuid);
+		List<FSBlock> blocks = reachable(root, snapshot.unloaded);
+		for (UUID uuid : snapshot.unloaded)
+			snapshot.live.add(uuid);
+		for (FSBlock block : blocks) {
+			snapshot.live.add(block.uuid);
+			if (block instanceof FSStoredFile) {
+				String blob = ((FSStoredFile) block).getBlob();
+				if (blob != null)
+					snapshot.blobs.add(blob);
+			}
+			if (block.dirty || !journal.contains(block.uuid)) {
+				// cleared before serializing, so changes made after the snapshot are picked up next time
+				block.dirty = false;
+				snapshot.changed.put(block.uuid, toBytes(block));
+				snapshot.changedBlocks.add(block);
+			}
+		}
+		return snapshot;
+	}
+	// the serialized state of a filesystem at the time it was saved
+	public static class Snapshot {
+
+		private final FilesystemJournal journal;
+		private final UUID root;
+		private final Map<UUID, byte[]> changed = new LinkedHashMap<>();
+		private final Set<UUID> live = new HashSet<>();
+		private final List<FSBlock> changedBlocks = new ArrayList<>();
+		private final Set<String> blobs = new HashSet<>();
+		// folders that were never loaded, their contents are still the same as in the journal
+		private final Set<UUID> unloaded = new HashSet<>();
+		private boolean resolved = false;
+
+		private int writtenBlocks = 0;
+		private long writtenBytes = 0;
+
+		private Snapshot(FilesystemJournal journal, UUID root) {
+			this.journal = journal;
+			this.root = root;
+		}
+
+		/**
+		 * Writes the blocks that changed to the journal, or rewrites the journal if it needs to be compacted.
+		 *
+		 * @throws IOException if the journal could not be written
+		 */
+		public void write() throws IOException {
+			// the journal already has everything
+			if (changed.isEmpty() && root.equals(journal.getRoot()) && journal.exists())
+				return;
+			resolve();
+			long live = 0;
+			for (UUID uuid : this.live) {
+				byte[] data = changed.get(uuid);
+				live += data != null ? data.length : journal.recordSize(uuid);
+			}
+			try {
+				long before = journal.size();
+				if (journal.shouldCompact(live)) {
+					journal.compact(root, changed, this.live);
+					writtenBlocks = this.live.size();
+					writtenBytes = journal.size();
+				}
+				else {
+					journal.append(root, changed);
+					writtenBlocks = changed.size();
+					writtenBytes = journal.size() - before;
+				}
+			}
+			catch (IOException e) {
+				// nothing was saved, so make sure these are written next time
+				for (FSBlock block : changedBlocks)
+					block.dirty = true;
+				throw e;
+			}
+		}
+
+		// adds the blocks (and blobs) below folders that were never loaded, reading them from the journal
+		private void resolve() throws IOException {
+			if (resolved)
+				return;
+			walk(journal, unloaded, live, blobs);
+			resolved = true;
+		}
+
+		/**
+		 * Returns the blobs referenced by the filesystem. This has to be called from the thread that
+		 * writes the snapshot, before it is written.
+		 *
+		 * @return the blobs, or null if nothing changed since the last save
+		 * @throws IOException if the parts of the filesystem that were never loaded could not be read
+		 */
+		public Set<String> getBlobs() throws IOException {
+			if (changed.isEmpty())
+				return null;
+			resolve();
+			return blobs;
+		}
+
+		public int getChangedBlocks() {
+			return changed.size();
+		}
+
+		public int getWrittenBlocks() {
+			return writtenBlocks;
+		}
+
+		public long getWrittenBytes() {
+			return writtenBytes;
+		}
+	}
+	// all the blocks that can be reached from the given root, that can be serialized. Folders that were never
+	// loaded (and haven't changed) are not loaded for this, they're added to the unloaded set instead.
+	private List<FSBlock> reachable(FSBlock root, Set<UUID> unloaded) {
+		List<FSBlock> list = new ArrayList<>();
+		Set<UUID> visited = new HashSet<>();
+		Deque<FSBlock> stack = new ArrayDeque<>();
+		stack.push(root);
+		visited.add(root.uuid);
+		while (!stack.isEmpty()) {
+			FSBlock block = stack.pop();
+			if (block instanceof FSFolder && !((FSFolder) block).isLoaded() && !block.dirty) {
+				unloaded.add(block.uuid);
+				continue;
+			}
+			list.add(block);
+			if (block instanceof FSFolder) {
+				for (FSBlock child : ((FSFolder) block).contents.values()) {
+					if (map.containsKey(child.id) && visited.add(child.uuid))
+						stack.push(child);
+				}
+			}
+		}
+		return list;
+	}
+	// prepares to read a filesystem from the computer's journal, deserialize() can be called after. Only
+	// the index of the journal is read, blocks are read as they're needed.
+	public void readFrom(FilesystemJournal journal) throws IOException {
+		root = journal.getRoot();
+		if (root == null)
+			throw new IOException("journal has no root: " + journal.getFile().getAbsolutePath());
+		lazy = true;
+	}
+	/**
+	 * Finds the blobs referenced by the filesystem that was last written to a journal, without
+	 * deserializing it.
+	 *
+	 * @param journal the journal to read
+	 * @return the blobs
+	 * @throws IOException if the journal could not be read
+	 */
+	public static Set<String> readBlobs(FilesystemJournal journal) throws IOException {
+		Set<String> blobs = new HashSet<>();
+		UUID root = journal.exists() ? journal.getRoot() : null;
+		if (root != null) {
+			Set<UUID> visited = new HashSet<>();
+			visited.add(root);
+			walk(journal, Collections.singleton(root), visited, blobs);
+		}
+		return blobs;
+	}
+	// reads every block below the given blocks from the journal, adding them to the visited set (along with the
+	// blobs of their files). Blocks that are already in the set are not read again.
+	private static void walk(FilesystemJournal journal, Collection<UUID> start, Set<UUID> visited,
+	                         Set<String> blobs) throws IOException {
+		Deque<UUID> stack = new ArrayDeque<>(start);
+		while (!stack.isEmpty()) {
+			byte[] bytes = journal.readBlock(stack.pop());
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			// header
+			in.skipBytes(in.readInt());
+			in.readByte();
+			byte id = in.readByte();
+			// content, only folders and files pointing to blobs matter here
+			if (id == 0x00) {
+				while (in.available() > 0) {
+					in.skipBytes(in.readInt());
+					UUID child = new UUID(in.readLong(), in.readLong());
+					if (visited.add(child))
+						stack.push(child);
+				}
+			}
+			else if (id == 0x08 && in.available() == 20) {
+				byte[] hash = new byte[20];
+				in.readFully(hash);
+				blobs.add(HashCode.fromBytes(hash).toString());
+			}
+		}
+	}
+	// the blobs referenced by the files that were deserialized
+	public Set<String> getBlobs() {
+		return blobs;
+	}
+	public synchronized FSBlock deserialize() throws IOException {
 		return deserialize(root);
 	}
 	// Now, this is both our method for internal, recursive de-serialization, AND for triggering the de-serialization
 	// of the entire filesystem! There's a problem here, because we have no way of getting the root folder from our
 	// serialized mappings, so we DO need to store the root UUID so we know where to start when de-serializing our
 	// tree.
-	public FSBlock deserialize(UUID uuid) throws IOException {
+
+	// Folders can be loaded from any thread that uses them, so this is synchronized.
+	public synchronized FSBlock deserialize(UUID uuid) throws IOException {
 
 		// if this file was already deserialized somewhere else, and this is a reference to the same file, use it!
 		if (mappings.containsKey(uuid))
 			return mappings.get(uuid);
 
-		byte[] bytes = serializedMappings.get(uuid);
+		// the journal is read through the computer, because it moves when the computer is renamed
+		byte[] bytes = lazy ? computer.getJournal().readBlock(uuid) : serializedMappings.get(uuid);
 		if (bytes == null) {
 			throw new IOException("Missing block: " + uuid);
 		}
@@ -238,6 +463,8 @@ public class SerializedFilesystem {
 			FSBlock block = serializer.deserialize(remaining, uuid);
 			block.permissions = permissions;
 			block.owner = owner;
+			// this block is the same as what is stored
+			block.dirty = false;
 			mappings.put(uuid, block);
 			return block;
 		}
@@ -0,0 +1,150 @@
+package ca.jarcode.consoles.computer.filesystem;
+
+import ca.jarcode.consoles.Computers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/*
+
+Seekable input stream for the data of a stored file.
+
+Reads are positional (the file is never copied into memory), and go through a small buffer.
+Files larger than the configured threshold are memory-mapped instead, up to the size they had
+when the stream was opened. Anything written to the file after that is still read through
+the channel, so a stream that has reached the end can keep reading as the file grows.
+
+ */
+public class StoredInputStream extends InputStream {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer mapped;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	// position of the first byte in the buffer, and the amount of bytes in it
+	private long start = 0;
+	private int count = 0;
+
+	private long position = 0;
+	private long mark = 0;
+
+	public StoredInputStream(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		long size = channel.size();
+		long threshold = Computers.mmapThreshold * 1024L;
+		if (threshold > 0 && size >= threshold && size <= Integer.MAX_VALUE)
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		else
+			mapped = null;
+	}
+
+	@Override
+	public synchronized int read() throws IOException {
+		if (mapped != null && position < mapped.limit())
+			return mapped.get((int) position++) & 0xFF;
+		if (!fill())
+			return -1;
+		return buffer[(int) (position++ - start)] & 0xFF;
+	}
+
+	@Override
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		if (mapped != null && position < mapped.limit()) {
+			int amount = (int) Math.min(len, mapped.limit() - position);
+			ByteBuffer view = mapped.duplicate();
+			view.position((int) position);
+			view.get(b, off, amount);
+			position += amount;
+			return amount;
+		}
+		// large reads go straight into the array
+		if (len >= BUFFER_SIZE && !buffered()) {
+			int amount = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if (amount <= 0)
+				return -1;
+			position += amount;
+			return amount;
+		}
+		if (!fill())
+			return -1;
+		int at = (int) (position - start);
+		int amount = Math.min(len, count - at);
+		System.arraycopy(buffer, at, b, off, amount);
+		position += amount;
+		return amount;
+	}
+
+	private boolean buffered() {
+		return position >= start && position < start + count;
+	}
+
+	// makes sure the buffer contains the current position, returns false at the end of the file
+	private boolean fill() throws IOException {
+		if (buffered())
+			return true;
+		start = position;
+		count = Math.max(0, channel.read(ByteBuffer.wrap(buffer), position));
+		return count > 0;
+	}
+
+	@Override
+	public synchronized long skip(long n) throws IOException {
+		long next = Math.max(0, Math.min(position + n, channel.size()));
+		long skipped = next - position;
+		position = next;
+		return skipped;
+	}
+
+	// like LinkedStream, the end counts as available, so programs that poll this stream will read it
+	@Override
+	public synchronized int available() throws IOException {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(1, channel.size() - position));
+	}
+
+	// moves to the given position, which may be past the end of the file
+	public synchronized void seek(long position) {
+		if (position < 0)
+			throw new IllegalArgumentException("negative position: " + position);
+		this.position = position;
+	}
+
+	public synchronized long position() {
+		return position;
+	}
+
+	// the current size of the file
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int limit) {
+		mark = position;
+	}
+
+	@Override
+	public synchronized void reset() {
+		position = mark;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
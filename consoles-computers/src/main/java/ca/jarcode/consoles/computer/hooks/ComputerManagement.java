@@ -1,21 +1,25 @@
 package ca.jarcode.consoles.computer.hooks;
 
 import ca.jarcode.consoles.computer.Computer;
+import ca.jarcode.consoles.computer.ComputerData;
 import ca.jarcode.consoles.computer.ComputerHandler;
 
+import java.util.stream.Stream;
+
 /**
  * These are safe, static methods that can be used to interface with computers.
  */
 public class ComputerManagement {
 
 	/**
-	 * Returns all active hosts on the server
+	 * Returns all active hosts on the server, including computers that are waiting for their chunk to load
 	 *
 	 * @return an array of strings representing all the active computers
 	 */
 	public static String[] getAllHosts() {
-		return ComputerHandler.getInstance().getComputers().stream()
-				.map(Computer::getHostname)
+		return Stream.concat(
+				ComputerHandler.getInstance().getComputers().stream().map(Computer::getHostname),
+				ComputerHandler.getInstance().getPending().stream().map(ComputerData::getHostname))
 				.toArray(String[]::new);
 	}
 
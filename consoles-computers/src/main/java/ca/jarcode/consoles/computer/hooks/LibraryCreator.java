@@ -2,15 +2,20 @@ package ca.jarcode.consoles.computer.hooks;
 
 import ca.jarcode.consoles.computer.interpreter.ComputerLibrary;
 import ca.jarcode.consoles.computer.interpreter.Lua;
-import org.luaj.vm2.LuaError;
+import ca.jarcode.consoles.computer.interpreter.LuaBridge;
 import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 public class LibraryCreator {
 
+	// public methods of each library type, so we don't have to look them up every time a library is built
+	private static final Map<Class<?>, Method[]> methods = new ConcurrentHashMap<>();
+
 	/**
 	 * Links a Java class (and its instance) as a library that is meant to be visible
 	 * to Lua programs running in computers. All types are mapped automatically, and
@@ -24,7 +29,7 @@ public class LibraryCreator {
 	 */
 	public static <T> void link(Class<T> type, Supplier<? super T> supplier, String name, boolean isRestricted) {
 		ComputerLibrary library = new ComputerLibrary(name, isRestricted, () -> methods(type, supplier.get()));
-		Lua.libraries.put(name, library);
+		Lua.link(name, library);
 	}
 
 	/**
@@ -42,62 +47,42 @@ public class LibraryCreator {
 			Object obj = supplier.get();
 			return methods(obj.getClass(), obj);
 		});
-		Lua.libraries.put(name, library);
+		Lua.link(name, library);
 	}
 
 	private static ComputerLibrary.NamedFunction[] methods(Class<?> type, Object inst) {
-		Method[] java = type.getMethods();
+		Method[] java = methods.computeIfAbsent(type, Class::getMethods);
 		ComputerLibrary.NamedFunction[] lua = new ComputerLibrary.NamedFunction[java.length];
 		for (int t = 0; t < java.length; t++)
 			lua[t] = toLua(java[t], inst);
 		return lua;
 	}
 	private static ComputerLibrary.NamedFunction toLua(Method m, final Object inst) {
-		Class[] types = m.getParameterTypes();
+		LuaBridge.Bound bound = LuaBridge.bind(m, inst);
 		ComputerLibrary.NamedFunction function = new ComputerLibrary.NamedFunction() {
 			@Override
 			public LuaValue call() {
-				try {
-					return Lua.translateLua(m.invoke(inst));
-				} catch (IllegalAccessException | InvocationTargetException e) {
-					throw new LuaError(e);
-				}
+				return bound.call();
 			}
 
 			@Override
 			public LuaValue call(LuaValue v) {
-				try {
-					return Lua.translateLua(m.invoke(inst, Lua.toJava(types, v)));
-				} catch (IllegalAccessException | InvocationTargetException e) {
-					throw new LuaError(e);
-				}
+				return bound.call(v);
 			}
 
 			@Override
 			public LuaValue call(LuaValue v, LuaValue v1) {
-				try {
-					return Lua.translateLua(m.invoke(inst, Lua.toJava(types, v, v1)));
-				} catch (IllegalAccessException | InvocationTargetException e) {
-					throw new LuaError(e);
-				}
+				return bound.call(v, v1);
 			}
 
 			@Override
 			public LuaValue call(LuaValue v, LuaValue v1, LuaValue v2) {
-				try {
-					return Lua.translateLua(m.invoke(inst, Lua.toJava(types, v, v1, v2)));
-				} catch (IllegalAccessException | InvocationTargetException e) {
-					throw new LuaError(e);
-				}
+				return bound.call(v, v1, v2);
 			}
 
 			@Override
-			public LuaValue call(LuaValue v, LuaValue v1, LuaValue v2, LuaValue v3) {
-				try {
-					return Lua.translateLua(m.invoke(inst, Lua.toJava(types, v, v1, v2, v3)));
-				} catch (IllegalAccessException | InvocationTargetException e) {
-					throw new LuaError(e);
-				}
+			public Varargs invoke(Varargs args) {
+				return args.narg() > 3 ? bound.invoke(args) : super.invoke(args);
 			}
 		};
 		if (m.isAnnotationPresent(LuaName.class)) {
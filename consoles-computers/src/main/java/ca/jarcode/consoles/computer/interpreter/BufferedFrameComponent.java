@@ -8,9 +8,7 @@ import ca.jarcode.consoles.internal.InputComponent;
 import org.bukkit.entity.Player;
 
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.function.Consumer;
 
 /*
 
@@ -22,17 +20,26 @@ public class BufferedFrameComponent extends ConsoleComponent implements InputCom
 	private final CopyOnWriteArrayList<LuaInteraction> interactions = new CopyOnWriteArrayList<>();
 	private final Object STR_LOCK = new Object();
 	private StringBuilder input = new StringBuilder();
-	private final CopyOnWriteArrayList<Consumer<CanvasGraphics>> ops = new CopyOnWriteArrayList<>();
+	// the raster is swapped and painted while holding this lock, so a raster handed back by swap()
+	// is never in the middle of being painted.
+	private final Object RASTER_LOCK = new Object();
+	private FrameRaster raster = null;
 
 	public BufferedFrameComponent(Computer computer) {
 		super(computer.getViewWidth(), computer.getViewHeight(), computer.getConsole());
 		this.setEnabled(true);
 	}
 
-	public void setOperations(Collection<Consumer<CanvasGraphics>> ops) {
-		this.ops.clear();
-		this.ops.addAll(ops);
+	// shows the given raster, returning the raster that was shown before. The returned raster
+	// is no longer read by this component, and can be re-used.
+	public FrameRaster swap(FrameRaster raster) {
+		FrameRaster previous;
+		synchronized (RASTER_LOCK) {
+			previous = this.raster;
+			this.raster = raster;
+		}
 		repaint();
+		return previous;
 	}
 
 	public LuaInteraction interaction() {
@@ -61,8 +68,9 @@ public class BufferedFrameComponent extends ConsoleComponent implements InputCom
 
 	@Override
 	public void paint(CanvasGraphics g, String context) {
-		for (Consumer<CanvasGraphics> op : ops) {
-			op.accept(g);
+		synchronized (RASTER_LOCK) {
+			if (raster != null)
+				raster.paint(g);
 		}
 	}
 
@@ -0,0 +1,177 @@
+package ca.jarcode.consoles.computer.interpreter;
+
+import ca.jarcode.consoles.Computers;
+import com.google.common.hash.Hashing;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+
+Process-wide cache of compiled Lua chunks, keyed by a hash of their source. Compiled
+prototypes are never modified, so they can be shared between every program (and computer)
+that loads the same source, each program just creates its own closure from it.
+
+The cache is bounded by the amount of entries, and the least recently used chunks are
+evicted first. Chunks that were loaded from a file are tracked, so when that file is
+rewritten and loaded again, the chunk for the old contents is dropped right away.
+
+ */
+public class ChunkCache {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final Object LOCK = new Object();
+
+	// hash -> compiled chunk, in access order
+	private static final LinkedHashMap<String, Prototype> chunks = new LinkedHashMap<String, Prototype>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Prototype> eldest) {
+			if (size() > Computers.chunkCacheSize) {
+				evictions.increment();
+				forget(eldest.getKey());
+				return true;
+			}
+			return false;
+		}
+	};
+	// file -> hash of the last chunk loaded from it, only while that chunk is cached
+	private static final Map<UUID, String> files = new HashMap<>();
+	// hash -> files that the chunk was last loaded from
+	private static final Map<String, Set<UUID>> sources = new HashMap<>();
+
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+	private static final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Loads a chunk of Lua code into the given globals, compiling it only if the same
+	 * source has not been compiled already.
+	 *
+	 * @param globals the globals to load the chunk into
+	 * @param source the Lua source
+	 * @return the loaded chunk
+	 * @throws LuaError if the source could not be compiled
+	 */
+	public static LuaValue load(Globals globals, String source) {
+		return load(globals, source, null);
+	}
+
+	/**
+	 * Loads a chunk of Lua code that was read from a file.
+	 *
+	 * @param globals the globals to load the chunk into
+	 * @param source the Lua source
+	 * @param file the UUID of the file the source was read from, or null
+	 * @return the loaded chunk
+	 * @throws LuaError if the source could not be compiled
+	 */
+	public static LuaValue load(Globals globals, String source, UUID file) {
+		if (Computers.chunkCacheSize <= 0)
+			return globals.load(source);
+		String hash = Hashing.sha1().hashString(source, CHARSET).toString();
+		Prototype prototype;
+		synchronized (LOCK) {
+			prototype = chunks.get(hash);
+			if (prototype != null && file != null)
+				track(file, hash);
+		}
+		if (prototype != null) {
+			hits.increment();
+		}
+		else {
+			misses.increment();
+			// compile outside of the lock, the same source may end up compiled twice
+			// if it's loaded at the same time, which is harmless.
+			prototype = compile(globals, source);
+			synchronized (LOCK) {
+				chunks.put(hash, prototype);
+				if (file != null)
+					track(file, hash);
+			}
+		}
+		try {
+			return globals.loader.load(prototype, source, globals);
+		}
+		catch (LuaError e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new LuaError(e);
+		}
+	}
+
+	// remembers the chunk that was loaded from a file, must hold LOCK
+	private static void track(UUID file, String hash) {
+		String last = files.put(file, hash);
+		if (last != null && !last.equals(hash)) {
+			Set<UUID> others = sources.get(last);
+			if (others != null)
+				others.remove(file);
+			// the file was rewritten, drop the chunk for the old contents
+			if (chunks.remove(last) != null)
+				evictions.increment();
+			forget(last);
+		}
+		sources.computeIfAbsent(hash, (k) -> new HashSet<>()).add(file);
+	}
+
+	// drops the files that point to a chunk that is no longer cached, must hold LOCK
+	private static void forget(String hash) {
+		Set<UUID> removed = sources.remove(hash);
+		if (removed != null) {
+			for (UUID file : removed)
+				files.remove(file);
+		}
+	}
+
+	// empties the cache
+	public static void clear() {
+		synchronized (LOCK) {
+			chunks.clear();
+			files.clear();
+			sources.clear();
+		}
+	}
+
+	public static int size() {
+		synchronized (LOCK) {
+			return chunks.size();
+		}
+	}
+
+	public static long getHits() {
+		return hits.sum();
+	}
+
+	public static long getMisses() {
+		return misses.sum();
+	}
+
+	public static long getEvictions() {
+		return evictions.sum();
+	}
+
+	private static Prototype compile(Globals globals, String source) {
+		try {
+			return globals.compilePrototype(new StringReader(source), source);
+		}
+		catch (LuaError e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new LuaError(e);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package ca.jarcode.consoles.computer.interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+
+Counts the Lua instructions executed by a program or computer.
+
+Accounts with a quota only allow that many instructions within each window (one server
+tick), instructions past the quota have to wait for the next window. This throttles heavy
+programs instead of killing them.
+
+ */
+public class CpuAccount {
+
+	// length of a quota window, in milliseconds
+	public static final long WINDOW = 50;
+
+	private final int quota;
+
+	// accounts are shared by every program on a computer, so nothing here locks. Windows are aligned
+	// to the clock, and counts that land right as a window is reset can be lost, which doesn't matter
+	// for throttling.
+	private final LongAdder total = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+
+	// index of the current window (time / WINDOW), and the instructions counted in it
+	private final AtomicLong windowIndex = new AtomicLong(0);
+	private final AtomicLong window = new AtomicLong(0);
+
+	// index of the current second, the instructions counted in it, and the count of the second before
+	private final AtomicLong secondIndex = new AtomicLong(0);
+	private final AtomicLong second = new AtomicLong(0);
+	private volatile long lastSecond = 0;
+
+	// quota is the amount of instructions allowed each window, or 0 for no limit
+	public CpuAccount(int quota) {
+		this.quota = quota;
+	}
+
+	/**
+	 * Counts executed instructions.
+	 *
+	 * @param instructions the amount of instructions
+	 * @param now the current time, in milliseconds
+	 * @return the amount of milliseconds the caller needs to wait before executing more instructions
+	 */
+	public long consume(int instructions, long now) {
+		total.add(instructions);
+		long index = now / 1000;
+		long current = secondIndex.get();
+		if (index > current && secondIndex.compareAndSet(current, index)) {
+			// nothing was counted last second if we skipped past it
+			long count = second.getAndSet(0);
+			lastSecond = index - current == 1 ? count : 0;
+		}
+		second.addAndGet(instructions);
+		if (quota <= 0)
+			return 0;
+		index = now / WINDOW;
+		current = windowIndex.get();
+		if (index > current && windowIndex.compareAndSet(current, index))
+			window.set(0);
+		if (window.addAndGet(instructions) > quota) {
+			throttled.increment();
+			return ((index + 1) * WINDOW) - now;
+		}
+		return 0;
+	}
+
+	// total instructions executed
+	public long getTotal() {
+		return total.sum();
+	}
+
+	// instructions executed in the last full second
+	public long getRate() {
+		return (System.currentTimeMillis() / 1000) - secondIndex.get() >= 2 ? 0 : lastSecond;
+	}
+
+	// amount of times instructions had to wait for the next window
+	public long getThrottled() {
+		return throttled.sum();
+	}
+}
@@ -0,0 +1,233 @@
+package ca.jarcode.consoles.computer.interpreter;
+
+import ca.jarcode.consoles.CColor;
+import ca.jarcode.consoles.api.CanvasGraphics;
+import ca.jarcode.consoles.internal.ConsoleGraphics;
+import org.bukkit.ChatColor;
+import org.bukkit.map.MapFont;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+
+Off-screen pixel data for a Lua frame.
+
+Frames draw straight into this raster instead of recording an operation for every call, and
+buffers swap rasters with their component when updated. Only pixels that have been drawn are
+painted, so anything a frame didn't touch keeps its content from the previous frame.
+
+Rasters are re-used by the program that created them (see SandboxProgram#takeRaster), so
+redrawing a screen doesn't allocate anything.
+
+ */
+public class FrameRaster {
+
+	private final int width, height;
+	private final byte[] pixels;
+	// pixels that have been drawn to
+	private final BitSet drawn;
+
+	public FrameRaster(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.pixels = new byte[width * height];
+		this.drawn = new BitSet(width * height);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// resets the raster, called before it's re-used by another frame
+	public synchronized void clear() {
+		drawn.clear();
+	}
+
+	public void set(int x, int y, byte color) {
+		if (x >= 0 && y >= 0 && x < width && y < height) {
+			int i = x + (y * width);
+			pixels[i] = color;
+			drawn.set(i);
+		}
+	}
+
+	public void fill(byte color) {
+		rect(0, 0, width, height, color);
+	}
+
+	public void rect(int x, int y, int w, int h, byte color) {
+		int x1 = Math.max(x, 0), y1 = Math.max(y, 0);
+		int x2 = Math.min(x + w, width), y2 = Math.min(y + h, height);
+		if (x1 >= x2 || y1 >= y2)
+			return;
+		for (int j = y1; j < y2; j++) {
+			int row = j * width;
+			Arrays.fill(pixels, row + x1, row + x2, color);
+			drawn.set(row + x1, row + x2);
+		}
+	}
+
+	public void line(int x1, int y1, int x2, int y2, byte color) {
+		// clip the line to the raster first (Liang-Barsky), so huge coordinates can't stall the program
+		if (!inside(x1, y1) || !inside(x2, y2)) {
+			double t0 = 0, t1 = 1;
+			double ddx = (double) x2 - x1, ddy = (double) y2 - y1;
+			for (int edge = 0; edge < 4; edge++) {
+				double p, q;
+				switch (edge) {
+					case 0: p = -ddx; q = x1; break;
+					case 1: p = ddx; q = width - 1 - (double) x1; break;
+					case 2: p = -ddy; q = y1; break;
+					default: p = ddy; q = height - 1 - (double) y1; break;
+				}
+				if (p == 0) {
+					if (q < 0)
+						return;
+				}
+				else {
+					double r = q / p;
+					if (p < 0) {
+						if (r > t1) return;
+						if (r > t0) t0 = r;
+					}
+					else {
+						if (r < t0) return;
+						if (r < t1) t1 = r;
+					}
+				}
+			}
+			int cx1 = (int) Math.round(x1 + (t0 * ddx)), cy1 = (int) Math.round(y1 + (t0 * ddy));
+			int cx2 = (int) Math.round(x1 + (t1 * ddx)), cy2 = (int) Math.round(y1 + (t1 * ddy));
+			x1 = cx1; y1 = cy1; x2 = cx2; y2 = cy2;
+		}
+		int dx = Math.abs(x2 - x1), dy = -Math.abs(y2 - y1);
+		int sx = x1 < x2 ? 1 : -1, sy = y1 < y2 ? 1 : -1;
+		int err = dx + dy;
+		while (true) {
+			set(x1, y1, color);
+			if (x1 == x2 && y1 == y2)
+				break;
+			int e2 = err * 2;
+			if (e2 >= dy) {
+				err += dy;
+				x1 += sx;
+			}
+			if (e2 <= dx) {
+				err += dx;
+				y1 += sy;
+			}
+		}
+	}
+
+	private boolean inside(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	// draws rows of w pixels from the source, each byte is mapped to a color with the palette
+	public void blit(int x, int y, int w, byte[] src, int off, int len, byte[] palette) {
+		if (w <= 0)
+			return;
+		int rows = (len + w - 1) / w;
+		int x1 = Math.max(x, 0), x2 = Math.min(x + w, width);
+		if (x1 >= x2)
+			return;
+		for (int r = Math.max(0, -y); r < rows && y + r < height; r++) {
+			int row = (y + r) * width;
+			int start = off + (r * w);
+			int end = Math.min(x2, x + Math.min(w, len - (r * w)));
+			for (int t = x1; t < end; t++) {
+				pixels[row + t] = palette[src[start + (t - x)] & 0xFF];
+			}
+			if (x1 < end)
+				drawn.set(row + x1, row + end);
+		}
+	}
+
+	// copies a region of the raster, the source and destination may overlap
+	public void copy(int sx, int sy, int w, int h, int dx, int dy) {
+		// clip the region against both the source and destination
+		if (sx < 0) { w += sx; dx -= sx; sx = 0; }
+		if (sy < 0) { h += sy; dy -= sy; sy = 0; }
+		if (dx < 0) { w += dx; sx -= dx; dx = 0; }
+		if (dy < 0) { h += dy; sy -= dy; dy = 0; }
+		w = Math.min(w, Math.min(width - sx, width - dx));
+		h = Math.min(h, Math.min(height - sy, height - dy));
+		if (w <= 0 || h <= 0)
+			return;
+		// copy rows bottom-up when moving down, so we don't overwrite rows we still need
+		boolean down = dy > sy;
+		for (int k = 0; k < h; k++) {
+			int j = down ? h - 1 - k : k;
+			int from = ((sy + j) * width) + sx, to = ((dy + j) * width) + dx;
+			System.arraycopy(pixels, from, pixels, to, w);
+			if (to > from) {
+				for (int t = w - 1; t >= 0; t--)
+					drawn.set(to + t, drawn.get(from + t));
+			}
+			else {
+				for (int t = 0; t < w; t++)
+					drawn.set(to + t, drawn.get(from + t));
+			}
+		}
+	}
+
+	// moves the content of a region up (positive amount) or down, filling the uncovered rows
+	public void scroll(int x, int y, int w, int h, int amount, byte color) {
+		if (amount == 0 || h <= 0)
+			return;
+		if (Math.abs(amount) >= h) {
+			rect(x, y, w, h, color);
+			return;
+		}
+		if (amount > 0) {
+			copy(x, y + amount, w, h - amount, x, y);
+			rect(x, y + h - amount, w, amount, color);
+		}
+		else {
+			copy(x, y, w, h + amount, x, y - amount);
+			rect(x, y, w, -amount, color);
+		}
+	}
+
+	// draws formatted text, the same way ConsoleGraphics#drawFormatted does
+	public void text(int x, int y, String text, MapFont font) {
+		int at = 0;
+		char[] arr = text.toCharArray();
+		byte color = 32;
+		boolean skipNext = false;
+		for (int i = 0; i < arr.length; i++) {
+			char c = arr[i];
+			if (i != arr.length - 1 && c == '\u00A7' && CColor.colorCharRange(arr[i + 1])) {
+				color = ConsoleGraphics.mapColor(ChatColor.getByChar(Character.toLowerCase(arr[i + 1])), color);
+				skipNext = true;
+			}
+			else if (skipNext) {
+				skipNext = false;
+			}
+			else {
+				if (c == '\u00A7')
+					c = '&';
+				MapFont.CharacterSprite sprite = font.getChar(c);
+				for (int k = 0; k < sprite.getWidth(); k++) {
+					for (int j = 0; j < sprite.getHeight(); j++) {
+						if (sprite.get(j, k))
+							set(k + at + x, j + y, color);
+					}
+				}
+				at += sprite.getWidth() + 1;
+			}
+		}
+	}
+
+	// paints the drawn pixels, locked so the raster can't be cleared for re-use while it's being painted
+	public synchronized void paint(CanvasGraphics g) {
+		for (int i = drawn.nextSetBit(0); i >= 0; i = drawn.nextSetBit(i + 1)) {
+			g.draw(i % width, i / width, pixels[i]);
+		}
+	}
+}
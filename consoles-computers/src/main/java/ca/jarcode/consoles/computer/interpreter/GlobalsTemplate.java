@@ -0,0 +1,175 @@
+package ca.jarcode.consoles.computer.interpreter;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.Bit32Lib;
+import org.luaj.vm2.lib.PackageLib;
+import org.luaj.vm2.lib.StringLib;
+import org.luaj.vm2.lib.TableLib;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+
+Prebuilt parts of the globals for Lua programs, one for each restriction level.
+
+The standard libraries that don't hold any state (bit32, table, string) are built once and
+made read-only. Every program receives its own (empty) layer over each of those tables, which
+it can add to without affecting other programs; lookups that miss the layer fall through to the
+shared table. The libraries that reference their globals or hold state (base, package, math's
+random generator, our interrupt library, etc.) are still created for each program.
+
+The computer libraries available for the restriction level are also resolved once, the
+templates are rebuilt when a new library is linked. Binding library and program methods
+only binds the instance to handles that are resolved once per method (see LuaBridge).
+
+Every string in LuaJ shares a single metatable, which points at the shared (read-only) string
+table, so string methods ("abc":upper()) resolve without any per-program lookup.
+
+ */
+class GlobalsTemplate {
+
+	private static final String[] SHARED = { "bit32", "table", "string" };
+
+	private static final Object LOCK = new Object();
+
+	private static volatile GlobalsTemplate restrictedTemplate = null;
+	private static volatile GlobalsTemplate unrestrictedTemplate = null;
+
+	// read-only library tables, shared by every template
+	private static final Map<String, LuaTable> TABLES = new LinkedHashMap<>();
+
+	static {
+		Globals scratch = new Globals();
+		scratch.load(new PackageLib());
+		scratch.load(new Bit32Lib());
+		scratch.load(new TableLib());
+		scratch.load(new StringLib());
+		for (String name : SHARED) {
+			TABLES.put(name, new ReadOnlyTable(scratch.get(name).checktable()));
+		}
+		// loading the string library may replace the metatable of all strings
+		LuaString.s_metatable = new ReadOnlyTable(LuaValue.tableOf(new LuaValue[] {
+				LuaValue.INDEX, TABLES.get("string")
+		}));
+	}
+
+	static GlobalsTemplate get(boolean restricted) {
+		GlobalsTemplate template = restricted ? restrictedTemplate : unrestrictedTemplate;
+		if (template != null)
+			return template;
+		synchronized (LOCK) {
+			template = restricted ? restrictedTemplate : unrestrictedTemplate;
+			if (template == null) {
+				template = new GlobalsTemplate(restricted);
+				if (restricted)
+					restrictedTemplate = template;
+				else
+					unrestrictedTemplate = template;
+			}
+			return template;
+		}
+	}
+
+	// called when libraries are linked
+	static void invalidate() {
+		synchronized (LOCK) {
+			restrictedTemplate = null;
+			unrestrictedTemplate = null;
+		}
+	}
+
+	private final ComputerLibrary[] libraries;
+
+	private GlobalsTemplate(boolean restricted) {
+		libraries = Lua.libraries.values().stream()
+				.filter((lib) -> !lib.isRestricted || !restricted)
+				.toArray(ComputerLibrary[]::new);
+	}
+
+	// loads the shared library tables into the globals, the package library needs to be loaded first
+	void applyStandard(Globals globals) {
+		LuaValue loaded = globals.get("package").get("loaded");
+		for (Map.Entry<String, LuaTable> entry : TABLES.entrySet()) {
+			LuaTable table = new LayeredTable(entry.getValue());
+			globals.set(entry.getKey(), table);
+			loaded.set(entry.getKey(), table);
+		}
+	}
+
+	// loads the computer libraries for this restriction level into the globals
+	void applyLibraries(Globals globals) {
+		for (ComputerLibrary library : libraries) {
+			globals.load(library.buildLibrary());
+		}
+	}
+
+	// a copy of a table that can't be modified after it is created
+	private static class ReadOnlyTable extends LuaTable {
+
+		private final boolean sealed;
+
+		private ReadOnlyTable(LuaTable table) {
+			super(0, table.keyCount());
+			LuaValue key = LuaValue.NIL;
+			while (true) {
+				Varargs next = table.next(key);
+				if ((key = next.arg1()).isnil())
+					break;
+				super.rawset(key, next.arg(2));
+			}
+			sealed = true;
+		}
+		@Override
+		public void rawset(LuaValue key, LuaValue value) {
+			if (sealed)
+				error("cannot modify a shared library table");
+			super.rawset(key, value);
+		}
+		@Override
+		public void rawset(int key, LuaValue value) {
+			if (sealed)
+				error("cannot modify a shared library table");
+			super.rawset(key, value);
+		}
+		@Override
+		public LuaValue setmetatable(LuaValue metatable) {
+			return error("cannot modify a shared library table");
+		}
+	}
+
+	// a program's own table, entries it doesn't have are read from the shared table
+	private static class LayeredTable extends LuaTable {
+
+		private final LuaTable base;
+
+		private LayeredTable(LuaTable base) {
+			this.base = base;
+		}
+		@Override
+		public LuaValue rawget(LuaValue key) {
+			LuaValue value = super.rawget(key);
+			return value.isnil() ? base.rawget(key) : value;
+		}
+		// iterates over the program's own entries, and then the shared entries it doesn't override
+		@Override
+		public Varargs next(LuaValue key) {
+			if (key.isnil() || !super.rawget(key).isnil()) {
+				Varargs next = super.next(key);
+				if (!next.arg1().isnil())
+					return next;
+				key = LuaValue.NIL;
+			}
+			while (true) {
+				Varargs next = base.next(key);
+				key = next.arg1();
+				if (key.isnil() || super.rawget(key).isnil())
+					return next;
+			}
+		}
+	}
+}
@@ -320,7 +320,7 @@ public final class InterpretedProgram extends SandboxProgram {
 		String text = file.read();
 		LuaValue value;
 		try {
-			value = globals.load(text);
+			value = ChunkCache.load(globals, text, block.uuid);
 		}
 		catch (LuaError err) {
 			if (Consoles.debug)
@@ -391,7 +391,11 @@ public final class InterpretedProgram extends SandboxProgram {
 	public LuaFrame lua_screenFrame() {
 		if (framePool.size() > 128) return null;
 		int id = findFrameId();
-		LuaFrame frame = new LuaFrame(id, computer, () -> framePool.remove(id));
+		LuaFrame frame = new LuaFrame(id, computer, takeRaster(), (raster) -> {
+			framePool.remove(id);
+			if (raster != null)
+				recycleRaster(raster);
+		});
 		framePool.put(id, frame);
 		return frame;
 	}
@@ -2,9 +2,13 @@ package ca.jarcode.consoles.computer.interpreter;
 
 import ca.jarcode.consoles.Computers;
 import ca.jarcode.consoles.Consoles;
+import ca.jarcode.consoles.computer.Computer;
 import org.luaj.vm2.Varargs;
 import org.luaj.vm2.lib.DebugLib;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BooleanSupplier;
 
 import static ca.jarcode.consoles.Lang.lang;
@@ -13,12 +17,32 @@ import static ca.jarcode.consoles.Lang.lang;
 
 This handles termination for Lua programs (as a library)
 
+This also counts the instructions executed by the program, and throttles the program when
+its computer goes over its instruction quota.
+
  */
 public class InterruptLib extends DebugLib {
 
+	// we check for termination in small batches, and count instructions in larger ones. Counting
+	// touches the computer's account, which is shared with its other programs.
+	private static final int CHECK = 64;
+	private static final int BATCH = 1024;
+
+	// libraries for every program that is currently running
+	private static final Set<InterruptLib> running = ConcurrentHashMap.newKeySet();
+
+	public static Set<InterruptLib> running() {
+		return Collections.unmodifiableSet(running);
+	}
+
 	private BooleanSupplier supplier;
 	private volatile long lastInterrupt = System.currentTimeMillis();
-	private byte off = 0;
+	private int off = 0;
+	private int uncounted = 0;
+
+	private final CpuAccount account = new CpuAccount(0);
+	private Computer computer;
+	private String name;
 
 	public InterruptLib(BooleanSupplier supplier) {
 		this.supplier = supplier;
@@ -26,20 +50,62 @@ public class InterruptLib extends DebugLib {
 	public void update() {
 		lastInterrupt = System.currentTimeMillis();
 	}
+	// starts counting instructions for the given computer
+	void start(Computer computer, String name) {
+		this.computer = computer;
+		this.name = name;
+		running.add(this);
+	}
+	void stop() {
+		running.remove(this);
+	}
+	public CpuAccount getAccount() {
+		return account;
+	}
+	public Computer getComputer() {
+		return computer;
+	}
+	public String getName() {
+		return name;
+	}
 	@Override
 	public void onInstruction(int i, Varargs varargs, int i1) {
-		// we check every 20 instructions, less overhead this way.
-		if (off == 20) {
+		if (off == CHECK) {
 			off = 0;
-			// check if the program has been running too long without an interrupt
-			if (System.currentTimeMillis() - lastInterrupt > Computers.maxTimeWithoutInterrupt)
-				throw new ProgramInterruptException(lang.getString("program-term"));
 			// check if the program has been terminated
 			if (supplier.getAsBoolean() || Lua.killAll) {
 				throw new ProgramInterruptException(lang.getString("program-term"));
 			}
+			uncounted += CHECK;
+			if (uncounted == BATCH)
+				count();
 		}
 		off++;
 		super.onInstruction(i, varargs, i1);
 	}
+	// counts a batch of instructions, and throttles the program if its computer is over its quota
+	private void count() {
+		uncounted = 0;
+		long now = System.currentTimeMillis();
+		account.consume(BATCH, now);
+		if (computer != null) {
+			long wait = computer.getCpu().consume(BATCH, now);
+			// the computer is over its quota, wait for the next window
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait);
+				}
+				catch (InterruptedException e) {
+					// terminating a program interrupts it, keep the flag for anything else that is waiting
+					Thread.currentThread().interrupt();
+					throw new ProgramInterruptException(lang.getString("program-term"));
+				}
+				// time spent throttled doesn't count towards the interrupt timeout
+				lastInterrupt += wait;
+			}
+		}
+		// check if the program has been running too long without an interrupt
+		if (now - lastInterrupt > Computers.maxTimeWithoutInterrupt)
+			throw new ProgramInterruptException(lang.getString("program-term"));
+	}
 }
@@ -10,7 +10,6 @@ import org.luaj.vm2.lib.*;
 import org.luaj.vm2.lib.jse.CoerceJavaToLua;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -29,6 +28,9 @@ public class Lua {
 	public static Map<String, LibFunction> staticFunctions = new ConcurrentHashMap<>();
 	public static Map<Thread, FuncPool> pools = new ConcurrentHashMap<>();
 
+	// lua$ methods for each class that has been mapped, so we only have to search once
+	private static final Map<Class<?>, Method[]> luaMethods = new ConcurrentHashMap<>();
+
 	// the function mapping tricks that I am using here is very... controversial for me.
 	// this is a split between me wanting to avoid using repetitive code (like below),
 	// but also wanting to use references to any method in Java (function pointers!).
@@ -134,66 +136,28 @@ public class Lua {
 	public static void find(Object inst, FuncPool pool) {
 		find(inst.getClass(), inst, pool);
 	}
+	// registers a library that can be loaded by programs
+	public static void link(String name, ComputerLibrary library) {
+		libraries.put(name, library);
+		GlobalsTemplate.invalidate();
+	}
+	private static Method[] luaMethods(Class<?> type) {
+		return luaMethods.computeIfAbsent(type, (key) -> {
+			List<Method> methodList = new ArrayList<>();
+			Class<?> at = key;
+			while (at != Object.class) {
+				methodList.addAll(Arrays.asList(at.getDeclaredMethods()));
+				at = at.getSuperclass();
+			}
+			return methodList.stream()
+					.filter(m -> m.getName().startsWith("lua$"))
+					.toArray(Method[]::new);
+		});
+	}
 	public static void find(Class type, Object inst, FuncPool pool) {
-		List<Method> methodList = new ArrayList<>();
-		while (type != Object.class) {
-			methodList.addAll(Arrays.asList(type.getDeclaredMethods()));
-			type = type.getSuperclass();
-		}
-		methodList.stream()
-				.filter(m -> m.getName().startsWith("lua$"))
-				.peek(m -> m.setAccessible(true))
-				.map(m -> {
-					Class[] types = m.getParameterTypes();
-					LibFunction function = new LibFunction() {
-						@Override
-						public LuaValue call() {
-							try {
-								return translateLua(m.invoke(inst));
-							} catch (IllegalAccessException | InvocationTargetException e) {
-								throw new LuaError(e);
-							}
-						}
-
-						@Override
-						public LuaValue call(LuaValue v) {
-							try {
-								return translateLua(m.invoke(inst, toJava(types, v)));
-							} catch (IllegalAccessException | InvocationTargetException e) {
-								throw new LuaError(e);
-							}
-						}
-
-						@Override
-						public LuaValue call(LuaValue v, LuaValue v1) {
-							try {
-								return translateLua(m.invoke(inst, toJava(types, v, v1)));
-							} catch (IllegalAccessException | InvocationTargetException e) {
-								throw new LuaError(e);
-							}
-						}
-
-						@Override
-						public LuaValue call(LuaValue v, LuaValue v1, LuaValue v2) {
-							try {
-								return translateLua(m.invoke(inst, toJava(types, v, v1, v2)));
-							} catch (IllegalAccessException | InvocationTargetException e) {
-								throw new LuaError(e);
-							}
-						}
-
-						@Override
-						public LuaValue call(LuaValue v, LuaValue v1, LuaValue v2, LuaValue v3) {
-							try {
-								return translateLua(m.invoke(inst, toJava(types, v, v1, v2, v3)));
-							} catch (IllegalAccessException | InvocationTargetException e) {
-								throw new LuaError(e);
-							}
-						}
-					};
-					return new AbstractMap.SimpleEntry<>(m.getName().substring(4), function);
-				})
-				.forEach(entry -> pool.functions.put(entry.getKey(), entry.getValue()));
+		for (Method m : luaMethods(type)) {
+			pool.functions.put(m.getName().substring(4), new LuaBridge.BoundFunction(LuaBridge.bind(m, inst)));
+		}
 	}
 	public static Object[] toJava(Class[] types, Object... args) {
 		for (int t = 0; t < args.length; t++) {
@@ -228,75 +192,108 @@ public class Lua {
 		System.arraycopy(arr, 1, ret, 0, ret.length - 1);
 		return ret;
 	}
+	// the argument conversions and the interface to call are resolved here, instead of on every call
+	@SuppressWarnings("unchecked")
 	public static LibFunction link(Class[] types, Object func) {
-
-		if (types.length == 1)
+		LuaBridge.Converter[] c = LuaBridge.converters(types);
+		if (func instanceof NoArgFunc) {
+			NoArgFunc f = (NoArgFunc) func;
+			return new ZeroArgFunction() {
+				@Override
+				public LuaValue call() {
+					return translateLua(f.call());
+				}
+			};
+		}
+		else if (func instanceof NoArgVoidFunc) {
+			NoArgVoidFunc f = (NoArgVoidFunc) func;
+			return new ZeroArgFunction() {
+				@Override
+				public LuaValue call() {
+					f.call();
+					return LuaValue.NIL;
+				}
+			};
+		}
+		else if (func instanceof OneArgFunc) {
+			OneArgFunc f = (OneArgFunc) func;
+			return new OneArgFunction() {
+				@Override
+				public LuaValue call(LuaValue v1) {
+					return translateLua(f.call(c[0].convert(v1)));
+				}
+			};
+		}
+		else if (func instanceof OneArgVoidFunc) {
+			OneArgVoidFunc f = (OneArgVoidFunc) func;
 			return new OneArgFunction() {
-
 				@Override
 				public LuaValue call(LuaValue v1) {
-					return translateLua(Lua.call(func, types, v1));
+					f.call(c[0].convert(v1));
+					return LuaValue.NIL;
 				}
 			};
-		else if (types.length == 2)
+		}
+		else if (func instanceof TwoArgFunc) {
+			TwoArgFunc f = (TwoArgFunc) func;
+			return new TwoArgFunction() {
+				@Override
+				public LuaValue call(LuaValue v1, LuaValue v2) {
+					return translateLua(f.call(c[0].convert(v1), c[1].convert(v2)));
+				}
+			};
+		}
+		else if (func instanceof TwoArgVoidFunc) {
+			TwoArgVoidFunc f = (TwoArgVoidFunc) func;
 			return new TwoArgFunction() {
-
 				@Override
 				public LuaValue call(LuaValue v1, LuaValue v2) {
-					return translateLua(Lua.call(func, types, v1, v2));
+					f.call(c[0].convert(v1), c[1].convert(v2));
+					return LuaValue.NIL;
 				}
 			};
-		else if (types.length == 3)
+		}
+		else if (func instanceof ThreeArgFunc) {
+			ThreeArgFunc f = (ThreeArgFunc) func;
 			return new ThreeArgFunction() {
-
 				@Override
 				public LuaValue call(LuaValue v1, LuaValue v2, LuaValue v3) {
-					return translateLua(Lua.call(func, types, v1, v2, v3));
+					return translateLua(f.call(c[0].convert(v1), c[1].convert(v2), c[2].convert(v3)));
 				}
 			};
-		else if (types.length == 0)
-			return new ZeroArgFunction() {
+		}
+		else if (func instanceof ThreeArgVoidFunc) {
+			ThreeArgVoidFunc f = (ThreeArgVoidFunc) func;
+			return new ThreeArgFunction() {
 				@Override
-				public LuaValue call() {
-					return translateLua(Lua.call(func, types));
+				public LuaValue call(LuaValue v1, LuaValue v2, LuaValue v3) {
+					f.call(c[0].convert(v1), c[1].convert(v2), c[2].convert(v3));
+					return LuaValue.NIL;
 				}
 			};
-
-		return new LibFunction() {
-			@Override
-			public LuaValue call() {
-				return translateLua(Lua.call(func, types));
-			}
-
-			@Override
-			public LuaValue call(LuaValue v1) {
-				return translateLua(Lua.call(func, types, v1));
-			}
-
-			@Override
-			public LuaValue call(LuaValue v1, LuaValue v2) {
-				return translateLua(Lua.call(func, types, v1, v2));
-			}
-
-			@Override
-			public LuaValue call(LuaValue v1, LuaValue v2, LuaValue v3) {
-				return translateLua(Lua.call(func, types, v1, v2, v3));
-			}
-
-			@Override
-			public LuaValue call(LuaValue v1, LuaValue v2, LuaValue v3, LuaValue v4) {
-				return translateLua(Lua.call(func, types, v1, v2, v3, v4));
-			}
-
-			@Override
-			public LuaValue invoke(Varargs value) {
-				Object[] total = new Object[types.length];
-				for (int t = 0; t < types.length; t++) {
-					total[t] = translate(types[t], value.arg(t));
+		}
+		else if (func instanceof FourArgFunc) {
+			FourArgFunc f = (FourArgFunc) func;
+			return new VarArgFunction() {
+				@Override
+				public Varargs invoke(Varargs v) {
+					return translateLua(f.call(c[0].convert(v.arg(1)), c[1].convert(v.arg(2)),
+							c[2].convert(v.arg(3)), c[3].convert(v.arg(4))));
 				}
-				return translateLua(Lua.call(func, types, total));
-			}
-		};
+			};
+		}
+		else if (func instanceof FourArgVoidFunc) {
+			FourArgVoidFunc f = (FourArgVoidFunc) func;
+			return new VarArgFunction() {
+				@Override
+				public Varargs invoke(Varargs v) {
+					f.call(c[0].convert(v.arg(1)), c[1].convert(v.arg(2)),
+							c[2].convert(v.arg(3)), c[3].convert(v.arg(4)));
+					return LuaValue.NIL;
+				}
+			};
+		}
+		else throw new RuntimeException("Unsupported interface");
 	}
 	public static LuaValue translateLua(Object java) {
 		if (java == null) {
@@ -386,7 +383,7 @@ public class Lua {
 		else throw new RuntimeException("could not assume type for: " + value.toString() + " ("
 					+ value.getClass().getSimpleName() + ")");
 	}
-	private static Object translate(Class<?> type, LuaValue value) {
+	static Object translate(Class<?> type, LuaValue value) {
 		if (type != null && FunctionBind.class.isAssignableFrom(type)
 				|| (value.isfunction() && (TypeResolver.Unknown.class == type || type == null))) {
 			return javaFunction(value);
@@ -452,48 +449,6 @@ public class Lua {
 		else throw new RuntimeException("Unsupported argument: " + type
 					+ ", lua: " + value.getClass().getSimpleName() + ", data: " + value.toString());
 	}
-	@SuppressWarnings("unchecked")
-	private static Object call(Object func, Class[] types, Object... args) {
-		for (int t = 0; t < args.length; t++) {
-			args[t] = translate(types[t], (LuaValue) args[t]);
-		}
-		if (func instanceof OneArgFunc) {
-			return ((OneArgFunc) func).call(args[0]);
-		}
-		else if (func instanceof TwoArgFunc) {
-			return ((TwoArgFunc) func).call(args[0], args[1]);
-		}
-		else if (func instanceof ThreeArgFunc) {
-			return ((ThreeArgFunc) func).call(args[0], args[1], args[2]);
-		}
-		else if (func instanceof FourArgFunc) {
-			return ((FourArgFunc) func).call(args[0], args[1], args[2], args[3]);
-		}
-		else if (func instanceof NoArgFunc) {
-			return ((NoArgFunc) func).call();
-		}
-		else if (func instanceof NoArgVoidFunc) {
-			((NoArgVoidFunc) func).call();
-			return null;
-		}
-		else if (func instanceof OneArgVoidFunc) {
-			((OneArgVoidFunc) func).call(args[0]);
-			return null;
-		}
-		else if (func instanceof TwoArgVoidFunc) {
-			((TwoArgVoidFunc) func).call(args[0], args[1]);
-			return null;
-		}
-		else if (func instanceof ThreeArgVoidFunc) {
-			((ThreeArgVoidFunc) func).call(args[0], args[1], args[2]);
-			return null;
-		}
-		else if (func instanceof FourArgVoidFunc) {
-			((FourArgVoidFunc) func).call(args[0], args[1], args[2], args[3]);
-			return null;
-		}
-		else throw new RuntimeException("Unsupported interface");
-	}
 	public static void main(Runnable task) {
 		Bukkit.getScheduler().scheduleSyncDelayedTask(Computers.getInstance(), task);
 	}
@@ -0,0 +1,242 @@
+package ca.jarcode.consoles.computer.interpreter;
+
+import net.jodah.typetools.TypeResolver;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.LibFunction;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+
+Resolves everything needed to call Java from Lua when a function is bound, instead of
+every time it is called.
+
+Each parameter type gets its own converter, so calls don't have to walk through every
+possible type in Lua#translate. Methods are called through method handles, which are
+created once per method and bound to each instance.
+
+ */
+public class LuaBridge {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	// generic (Object...) -> Object handles for each method, without the receiver bound, along with their
+	// conversions. Binding a method to an instance only has to bind the receiver.
+	private static final Map<Method, Bound> unbound = new ConcurrentHashMap<>();
+
+	private static final Converter DYNAMIC = (value) -> Lua.translate(null, value);
+
+	@FunctionalInterface
+	public interface Converter {
+		Object convert(LuaValue value);
+	}
+
+	@FunctionalInterface
+	public interface ResultConverter {
+		LuaValue convert(Object value);
+	}
+
+	// converts Lua values to the given Java type
+	public static Converter converter(Class<?> type) {
+		if (type == null || type == TypeResolver.Unknown.class)
+			return DYNAMIC;
+		else if (FunctionBind.class.isAssignableFrom(type))
+			return Lua::javaFunction;
+		else if (LuaValue.class.isAssignableFrom(type))
+			return (value) -> value;
+		else if (type == int.class || type == Integer.class)
+			return LuaValue::checkint;
+		else if (type == String.class)
+			return LuaValue::checkjstring;
+		else if (type == boolean.class || type == Boolean.class)
+			return LuaValue::checkboolean;
+		else if (type == double.class || type == Double.class)
+			return LuaValue::checkdouble;
+		else if (type == long.class || type == Long.class)
+			return LuaValue::checklong;
+		else if (type == byte.class || type == Byte.class)
+			return (value) -> (byte) value.checkint();
+		else if (type == short.class || type == Short.class)
+			return (value) -> (short) value.checkint();
+		else if (type == float.class || type == Float.class)
+			return (value) -> (float) value.checkdouble();
+		// everything else (functions, arrays, userdata) is still resolved when called
+		else return (value) -> Lua.translate(type, value);
+	}
+
+	public static Converter[] converters(Class<?>[] types) {
+		Converter[] converters = new Converter[types.length];
+		for (int t = 0; t < types.length; t++)
+			converters[t] = converter(types[t]);
+		return converters;
+	}
+
+	// converts values of the given Java type to Lua values
+	public static ResultConverter result(Class<?> type) {
+		if (type == void.class)
+			return (value) -> LuaValue.NIL;
+		else if (LuaValue.class.isAssignableFrom(type))
+			return (value) -> value == null ? LuaValue.NIL : (LuaValue) value;
+		else if (type == int.class)
+			return (value) -> LuaValue.valueOf((Integer) value);
+		else if (type == boolean.class)
+			return (value) -> LuaValue.valueOf((Boolean) value);
+		else if (type == double.class)
+			return (value) -> LuaValue.valueOf((Double) value);
+		else if (type == String.class)
+			return (value) -> value == null ? LuaValue.NIL : LuaValue.valueOf((String) value);
+		else return Lua::translateLua;
+	}
+
+	// creates a function that calls the method on the given instance (or statically, if the method is static)
+	public static Bound bind(Method method, Object inst) {
+		Bound bound = unbound.computeIfAbsent(method, (m) ->
+				new Bound(unreflect(m), converters(m.getParameterTypes()), result(m.getReturnType())));
+		if (Modifier.isStatic(method.getModifiers()))
+			return bound;
+		// the conversions don't hold any state, so they're shared
+		return new Bound(bound.handle.bindTo(inst), bound.converters, bound.result);
+	}
+
+	private static MethodHandle unreflect(Method method) {
+		try {
+			method.setAccessible(true);
+			MethodHandle handle = LOOKUP.unreflect(method);
+			return handle.asType(MethodType.genericMethodType(handle.type().parameterCount()));
+		}
+		catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// a method bound to an instance, with its argument and result conversions resolved
+	public static class Bound {
+
+		private final MethodHandle handle;
+		private final Converter[] converters;
+		private final ResultConverter result;
+
+		private Bound(MethodHandle handle, Converter[] converters, ResultConverter result) {
+			this.handle = handle;
+			this.converters = converters;
+			this.result = result;
+		}
+
+		public LuaValue call() {
+			if (converters.length != 0)
+				return invoke(LuaValue.NONE);
+			try {
+				return result.convert(handle.invokeExact());
+			}
+			catch (Throwable e) {
+				throw wrap(e);
+			}
+		}
+
+		public LuaValue call(LuaValue v) {
+			if (converters.length != 1)
+				return invoke(v);
+			Object a = converters[0].convert(v);
+			try {
+				return result.convert(handle.invokeExact(a));
+			}
+			catch (Throwable e) {
+				throw wrap(e);
+			}
+		}
+
+		public LuaValue call(LuaValue v, LuaValue v1) {
+			if (converters.length != 2)
+				return invoke(LuaValue.varargsOf(v, v1));
+			Object a = converters[0].convert(v), b = converters[1].convert(v1);
+			try {
+				return result.convert(handle.invokeExact(a, b));
+			}
+			catch (Throwable e) {
+				throw wrap(e);
+			}
+		}
+
+		public LuaValue call(LuaValue v, LuaValue v1, LuaValue v2) {
+			if (converters.length != 3)
+				return invoke(LuaValue.varargsOf(v, v1, v2));
+			Object a = converters[0].convert(v), b = converters[1].convert(v1), c = converters[2].convert(v2);
+			try {
+				return result.convert(handle.invokeExact(a, b, c));
+			}
+			catch (Throwable e) {
+				throw wrap(e);
+			}
+		}
+
+		// any amount of arguments, missing arguments are nil and extra arguments are ignored
+		public LuaValue invoke(Varargs args) {
+			Object[] java = new Object[converters.length];
+			for (int t = 0; t < java.length; t++)
+				java[t] = converters[t].convert(args.arg(t + 1));
+			try {
+				return result.convert(handle.invokeWithArguments(java));
+			}
+			catch (Throwable e) {
+				throw wrap(e);
+			}
+		}
+	}
+
+	// Lua errors (including interrupts) are passed on, anything else is wrapped like reflection would
+	private static LuaError wrap(Throwable e) {
+		if (e instanceof LuaError)
+			return (LuaError) e;
+		return new LuaError(new InvocationTargetException(e));
+	}
+
+	// a Lua function that calls a bound method
+	public static class BoundFunction extends LibFunction {
+
+		private final Bound bound;
+
+		public BoundFunction(Bound bound) {
+			this.bound = bound;
+		}
+
+		@Override
+		public LuaValue call() {
+			return bound.call();
+		}
+
+		@Override
+		public LuaValue call(LuaValue v) {
+			return bound.call(v);
+		}
+
+		@Override
+		public LuaValue call(LuaValue v, LuaValue v1) {
+			return bound.call(v, v1);
+		}
+
+		@Override
+		public LuaValue call(LuaValue v, LuaValue v1, LuaValue v2) {
+			return bound.call(v, v1, v2);
+		}
+
+		@Override
+		public Varargs invoke(Varargs args) {
+			switch (args.narg()) {
+				case 0: return bound.call();
+				case 1: return bound.call(args.arg1());
+				case 2: return bound.call(args.arg1(), args.arg(2));
+				case 3: return bound.call(args.arg1(), args.arg(2), args.arg(3));
+				default: return bound.invoke(args);
+			}
+		}
+	}
+}
@@ -29,6 +29,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -48,11 +49,24 @@ public abstract class SandboxProgram {
 
 	private static final Charset CHARSET = Charset.forName("UTF-8");
 
+	// amount of unused frame rasters kept around by a program
+	private static final int MAX_POOLED_RASTERS = 4;
+
+	// total time spent setting up globals for programs, in nanoseconds, and the amount of programs set up
+	private static final AtomicLong setupTime = new AtomicLong(0);
+	private static final AtomicLong setupCount = new AtomicLong(0);
+
 	static {
 		Libraries.init();
 		LuaTypes.init();
 	}
 
+	// average time it took to set up the globals of a program, in milliseconds
+	public static double getAverageSetup() {
+		long count = setupCount.get();
+		return count == 0 ? 0 : setupTime.get() / (double) count / 1000000D;
+	}
+
 	/**
 	 * Executes a lua program from the plugin folder, on a specific computer.
 	 *
@@ -154,6 +168,9 @@ public abstract class SandboxProgram {
 	}
 
 	public Map<Integer, LuaFrame> framePool = new HashMap<>();
+
+	// rasters that frames are done with, re-used for new frames
+	private final Deque<FrameRaster> rasters = new ArrayDeque<>();
 	
 	protected FSFile file;
 	protected String path;
@@ -173,11 +190,16 @@ public abstract class SandboxProgram {
 
 	protected List<String> registeredChannels = new ArrayList<>();
 
+	// streams that are left open between calls (from the Lua file API), closed when the program ends
+	private final List<Closeable> openStreams = new ArrayList<>();
+
 	protected boolean restricted = true;
 
 	protected Terminal contextTerminal = null;
 
 	protected String defaultChunk = null;
+	// file that the default chunk was read from
+	protected UUID defaultChunkFile = null;
 
 	// normal constructor for loading a program from a computer
 	public SandboxProgram(FSFile file, String path) {
@@ -215,15 +237,14 @@ public abstract class SandboxProgram {
 		// read from the program file and write it to a buffer
 		ByteArrayOutputStream buf = new ByteArrayOutputStream();
 		try (InputStream is = file.createInput()) {
+			byte[] chunk = new byte[4096];
 			int i;
-			while (true) {
-				if (terminated())
-					break;
-				if (is.available() > 0 || is instanceof ByteArrayInputStream) {
-					i = is.read();
-					if (i == -1) break;
-					buf.write(i);
-				} else Thread.sleep(50);
+			while (!terminated()) {
+				// blocks until data is available, terminating the program interrupts this thread,
+				// which ends reads from devices (linked streams) that are waiting for input
+				i = is.read(chunk);
+				if (i == -1) break;
+				buf.write(chunk, 0, i);
 			}
 			if (terminated())
 				print(" [" + lang.getString("parse-term") + "]");
@@ -238,10 +259,23 @@ public abstract class SandboxProgram {
 
 	protected abstract void map();
 
+	// keeps track of a stream that should be closed when this program ends, if it isn't closed before
+	public void closeOnExit(Closeable stream) {
+		synchronized (openStreams) {
+			openStreams.add(stream);
+		}
+	}
+	public void closed(Closeable stream) {
+		synchronized (openStreams) {
+			openStreams.remove(stream);
+		}
+	}
+
 	private void loadDefaultChunk() {
 		FSBlock block = computer.getBlock("/bin/default", "/");
 		if (block instanceof FSFile) {
 			defaultChunk = new LuaFile((FSFile) block, "/bin/default", "/", this::terminated, computer).read();
+			defaultChunkFile = block.uuid;
 		}
 	}
 
@@ -270,9 +304,17 @@ public abstract class SandboxProgram {
 			// all static functions that were already mapped are automatically added to this pool
 			pool.register(Thread.currentThread());
 
+			// start counting instructions for this program
+			interruptLib.start(computer, path != null ? path : "(exec)");
+
 			// map functions from this program instance to the pool
 			map();
 
+			long setupStart = System.nanoTime();
+
+			// prebuilt libraries for this restriction level
+			GlobalsTemplate template = GlobalsTemplate.get(restricted);
+
 			// create our globals for Lua. We use a special kind of globals
 			// that allows us to finalize variables.
 			globals = new EmbeddedGlobals();
@@ -282,9 +324,8 @@ public abstract class SandboxProgram {
 			// them.
 			globals.load(new JseBaseLib());
 			globals.load(new PackageLib());
-			globals.load(new Bit32Lib());
-			globals.load(new TableLib());
-			globals.load(new StringLib());
+			// bit32, table and string are copied from the template
+			template.applyStandard(globals);
 			globals.load(new BaseLib());
 
 			// I added a missing function to the math library
@@ -295,9 +336,7 @@ public abstract class SandboxProgram {
 
 			// Load any extra libraries, these can be registered by other plugins
 			// Note, we only register libraries that are not restricted.
-			Lua.libraries.values().stream()
-					.filter((lib) -> !lib.isRestricted || !restricted)
-					.forEach((lib) -> globals.load(lib.buildLibrary()));
+			template.applyLibraries(globals);
 
 			if (!restricted) {
 				globals.load(new CoroutineLib());
@@ -338,6 +377,14 @@ public abstract class SandboxProgram {
 			// globals at this point.
 			globals.finalizeEntries();
 
+			long setup = System.nanoTime() - setupStart;
+			setupTime.addAndGet(setup);
+			setupCount.incrementAndGet();
+
+			if (Consoles.debug)
+				Computers.getInstance().getLogger().info(String.format("[DEBUG] program setup took %.3fms",
+						setup / 1000000D));
+
 			// our main program chunk and the default chunk
 			LuaValue chunk, def;
 
@@ -348,7 +395,7 @@ public abstract class SandboxProgram {
 			if (defaultChunk != null && !defaultChunk.isEmpty()) {
 
 				// try to load the default chunk
-				def = loadChunk(defaultChunk);
+				def = loadChunk(defaultChunk, defaultChunkFile);
 
 				// if the previous method returned a chunk, call it!
 				if (def != null) try {
@@ -376,7 +423,7 @@ public abstract class SandboxProgram {
 			}
 
 			// try to load the main chunk
-			chunk = loadChunk(raw);
+			chunk = loadChunk(raw, file != null ? file.uuid : null);
 
 			// if the previous method returned null, it didn't compile (and handled the errors)
 			// we should just exit from here
@@ -448,13 +495,27 @@ public abstract class SandboxProgram {
 			if (pool != null)
 				pool.cleanup();
 
+			interruptLib.stop();
+
 			// clear all frame references (from the Lua graphics API)
 			framePool.clear();
+			rasters.clear();
 
 			// remove all registered channels (from the Lua networking API)
 			registeredChannels.forEach(computer::unregisterMessageListener);
 			registeredChannels.clear();
 
+			// close file streams the program didn't close itself
+			synchronized (openStreams) {
+				for (Closeable stream : openStreams) {
+					try {
+						stream.close();
+					}
+					catch (IOException ignored) {}
+				}
+				openStreams.clear();
+			}
+
 			// remove terminal hooks
 			Terminal terminal = contextTerminal;
 			if (terminal != null) {
@@ -477,12 +538,12 @@ public abstract class SandboxProgram {
 	}
 
 	// loads a raw chunk and returns a LuaValue, handing errors accordingly
-	private LuaValue loadChunk(String raw) {
+	private LuaValue loadChunk(String raw, UUID origin) {
 		LuaValue chunk;
 		try {
 			// try to load in the program
-			// this will try to compile the Lua string into Java bytecode
-			chunk = globals.load(raw);
+			// this will compile the Lua string, unless it was already compiled before
+			chunk = ChunkCache.load(globals, raw, origin);
 
 		}
 		// if we run into a compile error, print out the details and exit.
@@ -523,6 +584,22 @@ public abstract class SandboxProgram {
 		};
 	}
 
+	// returns an empty raster for a new frame
+	public FrameRaster takeRaster() {
+		FrameRaster raster = rasters.poll();
+		if (raster == null || raster.getWidth() != computer.getViewWidth()
+				|| raster.getHeight() != computer.getViewHeight())
+			return new FrameRaster(computer.getViewWidth(), computer.getViewHeight());
+		raster.clear();
+		return raster;
+	}
+
+	// returns a raster to the pool, once it's no longer used by a frame or buffer
+	public void recycleRaster(FrameRaster raster) {
+		if (rasters.size() < MAX_POOLED_RASTERS)
+			rasters.push(raster);
+	}
+
 	// finds a new id for a frame that is not taken
 	protected int findFrameId() {
 		int i = 0;
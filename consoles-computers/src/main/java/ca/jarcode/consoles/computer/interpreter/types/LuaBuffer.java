@@ -2,6 +2,7 @@ package ca.jarcode.consoles.computer.interpreter.types;
 
 import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.computer.interpreter.BufferedFrameComponent;
+import ca.jarcode.consoles.computer.interpreter.FrameRaster;
 import ca.jarcode.consoles.computer.interpreter.SandboxProgram;
 import ca.jarcode.consoles.computer.manual.Arg;
 import ca.jarcode.consoles.computer.manual.FunctionManual;
@@ -45,6 +46,7 @@ public class LuaBuffer {
 			try {
 				Thread.sleep(MIN_UPDATE_TIME - (System.currentTimeMillis() - lastUpdate));
 				update(id);
+				return;
 			}
 			catch (InterruptedException e) {
 				if (Consoles.debug)
@@ -53,9 +55,10 @@ public class LuaBuffer {
 		}
 		update.run();
 		if (frame != null) {
-			frame.remove();
-			component.setOperations(frame.operations);
-			frame.operations.clear();
+			// swap rasters with the component, the one it was showing can be re-used
+			FrameRaster previous = component.swap(frame.take());
+			if (previous != null)
+				program.recycleRaster(previous);
 		}
 		else throw new IllegalArgumentException("Invalid frame");
 	}
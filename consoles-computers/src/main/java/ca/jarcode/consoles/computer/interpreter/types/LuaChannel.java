@@ -1,14 +1,21 @@
 package ca.jarcode.consoles.computer.interpreter.types;
 
+import ca.jarcode.consoles.Computers;
+import ca.jarcode.consoles.computer.interpreter.ProgramInterruptException;
 import ca.jarcode.consoles.computer.manual.Arg;
 import ca.jarcode.consoles.computer.manual.FunctionManual;
 import ca.jarcode.consoles.computer.manual.TypeManual;
-import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
 
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
 
+import static ca.jarcode.consoles.Lang.lang;
+
 @TypeManual(
 		value = "A channel that can be opened for listening to messages sent from other computers.",
 		usage = "-- Opens a new channel\n" +
@@ -18,11 +25,20 @@ import java.util.function.BooleanSupplier;
 @SuppressWarnings("unused")
 public class LuaChannel {
 
-	private List<String> list = new CopyOnWriteArrayList<>();
+	// how long senders wait for space in a full channel before the message is dropped
+	private static final long SEND_TIMEOUT = 50;
+	// how often blocked readers wake up to check if their program has been terminated
+	private static final long READ_CHECK = 100;
+
+	private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(Computers.channelCapacity);
 	private Runnable update;
 	private Runnable destroy;
 	private BooleanSupplier terminated;
 
+	private final AtomicLong received = new AtomicLong(0);
+	private final AtomicLong receivedBytes = new AtomicLong(0);
+	private final AtomicLong dropped = new AtomicLong(0);
+
 	public LuaChannel(Runnable update, Runnable destroy, BooleanSupplier terminated) {
 		this.update = update;
 		this.destroy = destroy;
@@ -30,44 +46,112 @@ public class LuaChannel {
 	}
 
 	@FunctionManual("Writes data to this channel as if a client was writing to it. This function is called " +
-			"internally to send this channel messages from other clients.")
-	public void append(
+			"internally to send this channel messages from other clients. If the channel is full, this waits " +
+			"for a short while for space, and returns false if the message had to be dropped.")
+	public boolean append(
 			@Arg(name = "content", info = "the content to append to this channel") String content) {
-		list.add(content);
+		try {
+			if (queue.offer(content) || queue.offer(content, SEND_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				received.incrementAndGet();
+				receivedBytes.addAndGet(utf8Length(content));
+				return true;
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		dropped.incrementAndGet();
+		return false;
 	}
 
 	@FunctionManual("Polls data from this channel, returning the next available message, or nil if no message " +
 			"has been received.")
 	public String poll() {
-		if (list.size() == 0) return null;
-		else {
-			String str = list.get(0);
-			list.remove(0);
-			return str;
-		}
+		return queue.poll();
 	}
 
 	@FunctionManual("Reads data from this channel, blocking until the next available message. Once a message " +
 			"is available, this function will return it.")
 	public String read() {
-		while (list.size() == 0) {
-			try {
+		return await(-1);
+	}
+
+	@FunctionManual("Reads data from this channel, blocking until the next available message or until the " +
+			"timeout has passed. Returns nil if no message was received in time.")
+	public String await(
+			@Arg(name = "timeout", info = "the maximum time to wait, in milliseconds") Integer timeout) {
+		long end = System.currentTimeMillis() + timeout;
+		try {
+			while (true) {
+				long wait = timeout < 0 ? READ_CHECK : Math.min(READ_CHECK, end - System.currentTimeMillis());
+				if (wait <= 0)
+					return queue.poll();
+				String message = queue.poll(wait, TimeUnit.MILLISECONDS);
+				if (message != null)
+					return message;
 				if (terminated.getAsBoolean())
 					return null;
-				Thread.sleep(10);
-			}
-			catch (InterruptedException e) {
-				throw new LuaError(e);
+				update.run();
 			}
-			update.run();
 		}
-		String str = list.get(0);
-		list.remove(0);
-		return str;
+		catch (InterruptedException e) {
+			throw new ProgramInterruptException(lang.getString("program-term"));
+		}
+	}
+
+	@FunctionManual("Removes up to the given amount of messages from this channel without waiting, and returns " +
+			"them in a table (in the order they were received).")
+	public LuaTable drain(
+			@Arg(name = "max", info = "the maximum amount of messages to read") Integer max) {
+		LuaTable table = new LuaTable();
+		String message;
+		int i = 1;
+		while (i <= max && (message = queue.poll()) != null) {
+			table.rawset(i++, LuaValue.valueOf(message));
+		}
+		return table;
+	}
+
+	@FunctionManual("Returns the amount of messages waiting to be read.")
+	public int size() {
+		return queue.size();
+	}
+
+	@FunctionManual("Returns the total amount of messages this channel has received.")
+	public long received() {
+		return received.get();
+	}
+
+	@FunctionManual("Returns the total size, in bytes, of the messages this channel has received.")
+	public long receivedBytes() {
+		return receivedBytes.get();
+	}
+
+	@FunctionManual("Returns the amount of messages that were dropped because this channel was full.")
+	public long dropped() {
+		return dropped.get();
 	}
 
 	@FunctionManual("Destroys this channel, cleaning up any resources and frees the channel name.")
 	public void destroy() {
 		destroy.run();
 	}
+
+	// length of the string when encoded as UTF-8, without encoding it
+	private static int utf8Length(String str) {
+		int len = 0;
+		for (int t = 0; t < str.length(); t++) {
+			char c = str.charAt(t);
+			if (c < 0x80)
+				len++;
+			else if (c < 0x800)
+				len += 2;
+			else if (Character.isHighSurrogate(c)) {
+				len += 4;
+				t++;
+			}
+			else len += 3;
+		}
+		return len;
+	}
 }
@@ -5,7 +5,7 @@ import ca.jarcode.consoles.computer.manual.Arg;
 import ca.jarcode.consoles.computer.manual.FunctionManual;
 import ca.jarcode.consoles.computer.manual.TypeManual;
 
-import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @TypeManual("Represents a computer that exists in the server.")
 @SuppressWarnings("unused")
@@ -17,16 +17,13 @@ public class LuaComputer {
 		this.computer = computer;
 	}
 
-	@FunctionManual("Sends a raw message to this computer on the given channel.")
+	@FunctionManual("Sends a raw message to this computer on the given channel. Returns false if the " +
+			"channel does not exist, or if it is full.")
 	public boolean message(
 			@Arg(name = "channel", info = "the name of the channel to use") String channel,
 			@Arg(name = "message", info = "the contents of the message to send") String message) {
-		Consumer<String> listener = computer.getMessageListener(channel);
-		if (listener != null) {
-			listener.accept(message);
-			return true;
-		}
-		else return false;
+		Predicate<String> listener = computer.getMessageListener(channel);
+		return listener != null && listener.test(message);
 	}
 
 	@FunctionManual("Returns the hostname of this computer as a string.")
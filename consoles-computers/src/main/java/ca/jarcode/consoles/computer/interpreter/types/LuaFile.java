@@ -4,12 +4,18 @@ import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.computer.Computer;
 import ca.jarcode.consoles.computer.filesystem.FSFile;
 import ca.jarcode.consoles.computer.filesystem.FSStoredFile;
+import ca.jarcode.consoles.computer.filesystem.StoredInputStream;
+import ca.jarcode.consoles.computer.interpreter.FuncPool;
+import ca.jarcode.consoles.computer.interpreter.Lua;
+import ca.jarcode.consoles.computer.interpreter.SandboxProgram;
 import ca.jarcode.consoles.computer.manual.Arg;
 import ca.jarcode.consoles.computer.manual.FunctionManual;
 import ca.jarcode.consoles.computer.manual.TypeManual;
+import org.luaj.vm2.LuaValue;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.function.BooleanSupplier;
 
 @TypeManual("A stored file that exists in the filesystem.")
@@ -17,6 +23,9 @@ import java.util.function.BooleanSupplier;
 public class LuaFile extends LuaBlock {
 	private final FSFile file;
 	private final BooleanSupplier supplier;
+	private StoredInputStream reader = null;
+	// the program that closes the reader if it ends before this file is closed
+	private SandboxProgram owner = null;
 	public LuaFile(FSFile file, String path, String cd, BooleanSupplier supplier, Computer computer) {
 		super(file, path, cd, computer);
 		this.file = file;
@@ -53,19 +62,32 @@ public class LuaFile extends LuaBlock {
 	@FunctionManual("Reads all of this file's contents into a byte array. The LuaFile:read() function should " +
 			"be used over this to conserve memory.")
 	public byte[] data() {
+		return readAll();
+	}
+
+	@FunctionManual("Reads all of this file's contents into a string. The program will block until the file " +
+			"is fully read.")
+	public String read() {
+		byte[] data = readAll();
+		return data == null ? null : new String(data, Charset.forName("UTF-8"));
+	}
+
+	private byte[] readAll() {
 		try (InputStream is = file.createInput()) {
+			byte[] chunk = new byte[4096];
 			int i;
 			ByteArrayOutputStream out = new ByteArrayOutputStream();
 			while (true) {
 				if (supplier.getAsBoolean())
 					break;
-				if (is.available() > 0 || is instanceof ByteArrayInputStream) {
-					i = is.read();
+				// stored files never block, devices are polled
+				if (is.available() > 0 || is instanceof StoredInputStream || is instanceof ByteArrayInputStream) {
+					i = is.read(chunk);
 					if (i == -1) break;
-					out.write(i);
+					out.write(chunk, 0, i);
 				}
 			}
-			out.toByteArray();
+			return out.toByteArray();
 		} catch (IOException e) {
 			if (Consoles.debug)
 				e.printStackTrace();
@@ -73,33 +95,109 @@ public class LuaFile extends LuaBlock {
 		return null;
 	}
 
-	@FunctionManual("Reads all of this file's contents into a string. The program will block until the file " +
-			"is fully read.")
-	public String read() {
-		try (InputStream is = file.createInput()) {
-			int i;
-			Charset charset = Charset.forName("UTF-8");
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			while (true) {
-				if (supplier.getAsBoolean())
-					break;
-				if (is.available() > 0 || is instanceof ByteArrayInputStream) {
-					i = is.read();
-					if (i == -1) break;
-					out.write(i);
-				}
+	@FunctionManual("Reads up to the given amount of bytes from the current position in this file, and moves " +
+			"the position past them. Returns nil at the end of the file. Only works on stored files.")
+	public LuaValue readBytes(
+			@Arg(name = "amount", info = "the maximum amount of bytes to read") Integer amount) {
+		StoredInputStream in = reader();
+		if (in == null || amount <= 0)
+			return LuaValue.NIL;
+		try {
+			flush();
+			byte[] data = new byte[(int) Math.min(amount, Math.max(1, in.size() - in.position()))];
+			int read = 0;
+			while (read < data.length) {
+				int i = in.read(data, read, data.length - read);
+				if (i == -1) break;
+				read += i;
 			}
-			return new String(out.toByteArray(), charset);
-		} catch (IOException e) {
+			return read == 0 ? LuaValue.NIL : LuaValue.valueOf(read == data.length ? data : Arrays.copyOf(data, read));
+		}
+		catch (IOException e) {
 			if (Consoles.debug)
 				e.printStackTrace();
+			return LuaValue.NIL;
 		}
-		return null;
+	}
+
+	@FunctionManual("Moves the read position of this file. Negative positions are counted back from the end of " +
+			"the file (-10 is 10 bytes before the end). Returns the new position.")
+	public long seek(
+			@Arg(name = "position", info = "the position to move to, in bytes") Integer position) {
+		StoredInputStream in = reader();
+		if (in == null)
+			return 0;
+		try {
+			flush();
+			long target = position < 0 ? Math.max(0, in.size() + position) : position;
+			in.seek(target);
+			return target;
+		}
+		catch (IOException e) {
+			if (Consoles.debug)
+				e.printStackTrace();
+			return in.position();
+		}
+	}
+
+	@FunctionManual("Returns the current read position of this file, in bytes.")
+	public long position() {
+		StoredInputStream in = reader();
+		return in == null ? 0 : in.position();
+	}
+
+	@FunctionManual("Returns the size of this file in bytes, or 0 if this is not a stored file.")
+	public long size() {
+		if (!(file instanceof FSStoredFile))
+			return 0;
+		try {
+			flush();
+		}
+		catch (IOException e) {
+			if (Consoles.debug)
+				e.printStackTrace();
+		}
+		return ((FSStoredFile) file).length();
+	}
+
+	// positional reads only see what has been written to disk, so whatever a writer has buffered is flushed first
+	private void flush() throws IOException {
+		if (file instanceof FSStoredFile)
+			((FSStoredFile) file).flush();
+	}
+
+	// the stream used for positional reads, opened on first use
+	private StoredInputStream reader() {
+		if (reader == null && file instanceof FSStoredFile) {
+			InputStream in = file.createInput();
+			if (in instanceof StoredInputStream) {
+				reader = (StoredInputStream) in;
+				// the stream stays open between calls, so make sure it's closed when the program ends
+				FuncPool pool = Lua.pools.get(Thread.currentThread());
+				if (pool != null) {
+					owner = pool.getProgram();
+					owner.closeOnExit(reader);
+				}
+			}
+			else try {
+				in.close();
+			} catch (IOException ignored) {}
+		}
+		return reader;
 	}
 
 	@FunctionManual("If this is a normal file, this will close all active streams for the given file. If this is not " +
 			"a normal file, this call is discarded.")
 	public void close() {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException ignored) {}
+			if (owner != null)
+				owner.closed(reader);
+			reader = null;
+			owner = null;
+		}
 		if (file instanceof FSStoredFile)
 			file.release();
 	}
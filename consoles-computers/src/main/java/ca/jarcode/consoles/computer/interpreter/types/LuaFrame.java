@@ -1,17 +1,18 @@
 package ca.jarcode.consoles.computer.interpreter.types;
 
-import ca.jarcode.consoles.api.CanvasGraphics;
 import ca.jarcode.consoles.CColor;
 import ca.jarcode.consoles.computer.Computer;
+import ca.jarcode.consoles.computer.interpreter.FrameRaster;
 import ca.jarcode.consoles.computer.manual.Arg;
 import ca.jarcode.consoles.computer.manual.FunctionManual;
 import ca.jarcode.consoles.computer.manual.TypeManual;
 import org.bukkit.ChatColor;
 import org.bukkit.map.MapFont;
 import org.bukkit.map.MinecraftFont;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.function.Consumer;
 
 @TypeManual(
@@ -29,6 +30,14 @@ public class LuaFrame {
 
 	private static final MapFont FONT = MinecraftFont.Font;
 
+	// map colors for every byte value, used to blit strings
+	private static final byte[] PALETTE = new byte[256];
+
+	static {
+		for (int t = 0; t < PALETTE.length; t++)
+			PALETTE[t] = convert(t);
+	}
+
 	public static byte convert(int c) {
 		if (c >= 0 && c <= 127) {
 			return (byte) (int) c;
@@ -39,15 +48,18 @@ public class LuaFrame {
 		else return (byte) 0;
 	}
 
-	protected List<Consumer<CanvasGraphics>> operations = new ArrayList<>();
+	// operations are drawn straight into the raster
+	protected FrameRaster raster;
 	private Computer computer;
 	private int id;
-	private Runnable remove;
+	private Consumer<FrameRaster> remove;
 	private boolean removed = false;
 
-	public LuaFrame(int id, Computer computer, Runnable remove) {
+	// the remove function receives the raster of the frame, or null if it was taken by a buffer
+	public LuaFrame(int id, Computer computer, FrameRaster raster, Consumer<FrameRaster> remove) {
 		this.computer = computer;
 		this.id = id;
+		this.raster = raster;
 		this.remove = remove;
 	}
 	@FunctionManual("Removes the frame and cleans up resources. This function is called automatically when " +
@@ -55,7 +67,16 @@ public class LuaFrame {
 	public void remove() {
 		if (removed) return;
 		removed = true;
-		remove.run();
+		FrameRaster raster = this.raster;
+		this.raster = null;
+		remove.accept(raster);
+	}
+	// takes the raster from this frame, and removes it
+	FrameRaster take() {
+		FrameRaster raster = this.raster;
+		this.raster = null;
+		remove();
+		return raster;
 	}
 
 	@FunctionManual("Returns the ID of this fame")
@@ -70,8 +91,7 @@ public class LuaFrame {
 			@Arg(name = "y", info = "Y coordinate") Integer y,
 			@Arg(name = "c", info = "the minecraft map color to use") Integer c) {
 		if (removed) return;
-		if (x >= 0 && y >= 0 && getHeight() > y && getWidth() > x)
-			operations.add((g) -> g.draw(x, y, convert(c)));
+		raster.set(x, y, convert(c));
 	}
 	@FunctionManual("Returns the length, in pixels, of the text passed through this function. Ignores " +
 			"color formatting.")
@@ -89,8 +109,7 @@ public class LuaFrame {
 		if (removed) return;
 		text = ChatColor.translateAlternateColorCodes('&', text);
 		text = text.replace("\n", "");
-		final String t = text;
-		operations.add((g) -> g.drawFormatted(x, y, t));
+		raster.text(x, y, text, FONT);
 	}
 	@FunctionManual("Draws a filled box in the given area.")
 	public void box(
@@ -100,27 +119,69 @@ public class LuaFrame {
 			@Arg(name = "h", info = "box height") Integer h,
 			@Arg(name = "c", info = "box color") Integer c) {
 		if (removed) return;
-		byte converted = convert(c);
-		operations.add((g) -> {
-			for (int t = x; t < x + w; t++) {
-				for (int j = y; j < y + h; j++) {
-					g.draw(x, y, converted);
-				}
+		raster.rect(x, y, w, h, convert(c));
+	}
+	@FunctionManual("Draws a line between two points.")
+	public void line(
+			@Arg(name = "x1", info = "X coordinate of the first point") Integer x1,
+			@Arg(name = "y1", info = "Y coordinate of the first point") Integer y1,
+			@Arg(name = "x2", info = "X coordinate of the second point") Integer x2,
+			@Arg(name = "y2", info = "Y coordinate of the second point") Integer y2,
+			@Arg(name = "c", info = "line color") Integer c) {
+		if (removed) return;
+		raster.line(x1, y1, x2, y2, convert(c));
+	}
+	@FunctionManual("Draws pixel data in rows of the given width, starting at the X,Y coordinates. The data " +
+			"can either be a string, where each character's byte value is a map color, or a table of map " +
+			"colors. This is much faster than setting each pixel individually.")
+	public void blit(
+			@Arg(name = "x", info = "X coordinate") Integer x,
+			@Arg(name = "y", info = "Y coordinate") Integer y,
+			@Arg(name = "w", info = "the width of each row of pixels") Integer w,
+			@Arg(name = "data", info = "a string or table containing the colors to draw") LuaValue data) {
+		if (removed || w <= 0) return;
+		if (data.isstring()) {
+			LuaString str = data.checkstring();
+			raster.blit(x, y, w, str.m_bytes, str.m_offset, str.m_length, PALETTE);
+		}
+		else {
+			LuaTable table = data.checktable();
+			int len = table.length();
+			for (int t = 0; t < len; t++) {
+				LuaValue value = table.rawget(t + 1);
+				if (value.isnumber())
+					raster.set(x + (t % w), y + (t / w), convert(value.toint()));
 			}
-		});
+		}
+	}
+	@FunctionManual("Copies a region of the frame to another location in the frame. The regions may overlap.")
+	public void copy(
+			@Arg(name = "sx", info = "X coordinate of the region to copy") Integer sx,
+			@Arg(name = "sy", info = "Y coordinate of the region to copy") Integer sy,
+			@Arg(name = "w", info = "region width") Integer w,
+			@Arg(name = "h", info = "region height") Integer h,
+			@Arg(name = "dx", info = "X coordinate to copy the region to") Integer dx,
+			@Arg(name = "dy", info = "Y coordinate to copy the region to") Integer dy) {
+		if (removed) return;
+		raster.copy(sx, sy, w, h, dx, dy);
+	}
+	@FunctionManual("Scrolls the content of a region up by the given amount of pixels (or down, if the amount " +
+			"is negative), filling the uncovered area with the given color.")
+	public void scroll(
+			@Arg(name = "x", info = "X coordinate") Integer x,
+			@Arg(name = "y", info = "Y coordinate") Integer y,
+			@Arg(name = "w", info = "region width") Integer w,
+			@Arg(name = "h", info = "region height") Integer h,
+			@Arg(name = "amount", info = "amount of pixels to scroll by") Integer amount,
+			@Arg(name = "c", info = "the color to fill with") Integer c) {
+		if (removed) return;
+		raster.scroll(x, y, w, h, amount, convert(c));
 	}
 	@FunctionManual("Fills the entire frame with the given color")
 	public void fill(
 			@Arg(name = "c", info = "the color to fill with") Integer c) {
 		if (removed) return;
-		byte converted = convert(c);
-		operations.add((g) -> {
-			for (int t = 0; t < g.getWidth(); t++) {
-				for (int j = 0; j < g.getHeight(); j++) {
-					g.draw(t, j, converted);
-				}
-			}
-		});
+		raster.fill(convert(c));
 	}
 	@FunctionManual("Returns the width of the frame")
 	public int getWidth() {
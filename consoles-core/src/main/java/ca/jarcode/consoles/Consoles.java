@@ -26,6 +26,12 @@ public class Consoles extends JavaPlugin {
 	public static short startingId;
 	// debug mode
 	public static boolean debug = false;
+	// amount of threads used for painting, 0 to use the amount of available processors
+	public static int paintThreads = 0;
+	// default frame rate for consoles
+	public static int frameRate = 20;
+	// maximum amount of map packets the painter should send per tick, 0 for no limit
+	public static int packetBudget = 0;
 
 	public static Consoles getInstance() {
 		return instance;
@@ -47,11 +53,15 @@ public class Consoles extends JavaPlugin {
 
 		startingId = (short) getConfig().getInt("starting-map-index", 5000);
 		debug = getConfig().getBoolean("debug-mode", false);
+		paintThreads = getConfig().getInt("paint-threads", 0);
+		frameRate = Math.max(1, Math.min(20, getConfig().getInt("max-frame-rate", 20)));
+		packetBudget = getConfig().getInt("packets-per-tick", 0);
 
 		// assigns a bunch of API function handles
 		InternalFunctions.assign();
 
 		ConsoleHandler.getInstance().local = !forward;
+		ConsoleHandler.getInstance().getPainter().start();
 
 		ConsolesNMS.mapInternals.injectTypes();
 		ConsolesNMS.mapInternals.clearVanillaMapFiles();
@@ -61,7 +71,7 @@ public class Consoles extends JavaPlugin {
 		);
 
 		register(
-				ConsoleHandler::getInstance, ConsoleBungeeHook::new, SyncTaskScheduler::create,
+				ConsoleHandler::getInstance, () -> ConsoleHandler.getInstance().getIndex(), ConsoleBungeeHook::new, SyncTaskScheduler::create,
 				this::getCommandHandler, ImageConsoleHandler::new
 		);
 
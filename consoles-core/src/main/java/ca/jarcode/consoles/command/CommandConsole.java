@@ -2,6 +2,7 @@ package ca.jarcode.consoles.command;
 
 import ca.jarcode.consoles.internal.ManagedConsole;
 import ca.jarcode.consoles.internal.ConsoleHandler;
+import ca.jarcode.consoles.internal.MapPainter;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
 
@@ -28,10 +29,19 @@ public class CommandConsole extends CommandBase {
 					sender.sendMessage(count + " - " + ChatColor.GRAY + "(not created)");
 				}
 				else
-					sender.sendMessage(count + " - " + ChatColor.GRAY + console.getLocation().toString());
+					sender.sendMessage(count + " - " + ChatColor.GRAY + console.getLocation().toString()
+							+ ChatColor.WHITE + " (" + (console.getMemoryUsage() / 1024) + " KB)");
 				count++;
 			}
 		}
+		else if (args[0].equalsIgnoreCase("painter")) {
+			MapPainter painter = ConsoleHandler.getInstance().getPainter();
+			sender.sendMessage(ChatColor.YELLOW + "Painter requests:");
+			sender.sendMessage("submitted - " + ChatColor.GRAY + painter.getSubmittedRequests());
+			sender.sendMessage("merged - " + ChatColor.GRAY + painter.getMergedRequests());
+			sender.sendMessage("dropped - " + ChatColor.GRAY + painter.getDroppedRequests());
+			sender.sendMessage("deferred frames - " + ChatColor.GRAY + painter.getDeferredFrames());
+		}
 		else if (args[0].equalsIgnoreCase("remove") && args.length >= 2) {
 			int i;
 			try {
@@ -56,6 +66,8 @@ public class CommandConsole extends CommandBase {
 		sender.sendMessage(ChatColor.RED + "Console command usage:");
 		sender.sendMessage(ChatColor.BLUE + "/console list" + ChatColor.WHITE + " - " +
 				"lists the current consoles");
+		sender.sendMessage(ChatColor.BLUE + "/console painter" + ChatColor.WHITE + " - " +
+				"shows statistics for paint requests");
 		sender.sendMessage(ChatColor.BLUE + "/console remove [index]" + ChatColor.WHITE + " - " +
 				"removes a console at the given index");
 		sender.sendMessage(ChatColor.RED + "This is a command for developers/debugging");
@@ -6,11 +6,19 @@ import ca.jarcode.consoles.api.nms.CommandExecutor;
 import org.bukkit.Bukkit;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /*
@@ -20,6 +28,10 @@ An extension of a normal text area, this has significant changes:
 - Reads input from an input stream in a separate thread
 - Writes to either a FeedCreator, or the current output stream (if active)
 
+The feed blocks on the input stream instead of polling it, so text shows up as soon as it
+is written. Feeds run on a shared pool of threads, and text that arrives within the same
+tick is printed together with a single repaint.
+
 This class is relatively abstract, while this is the superclass of Terminal,
 you can use this for steaming any I/O.
 
@@ -39,12 +51,36 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 		public byte[] encode(String text) {
 			return text.getBytes(charset);
 		}
+		@Override
+		public CharsetDecoder decoder() {
+			return charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
 	};
 
+	// size of the buffers used to read and decode input
+	private static final int READ_SIZE = 1024;
+
+	// threads that feeds read from, and forward input with
+	private static final ExecutorService IO = Executors.newCachedThreadPool(new ThreadFactory() {
+		final AtomicInteger count = new AtomicInteger(0);
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Minecraft Console IO Feed #" + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
 	protected InputStream in = null;
 	protected OutputStream out = null;
 
-	private Thread feed;
+	// the thread reading for this feed. IO threads are re-used, so this is only set, cleared and
+	// interrupted while holding FEED_LOCK, which makes sure an interrupt never reaches another feed.
+	private volatile Thread feed;
+	private final Object FEED_LOCK = new Object();
 
 	// whether the IO thread is running
 	protected volatile boolean running = false;
@@ -60,11 +96,12 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 	private FeedCreator creator = null;
 	protected boolean initialized = false;
 
-	private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 	protected ByteArrayOutputStream outgoing = new ByteArrayOutputStream();
 
+	// text waiting to be printed, and whether a task has been scheduled to print it
 	private final Object TASK_LOCK = new Object();
-	private final List<Integer> tasks = new ArrayList<>();
+	private final StringBuilder pending = new StringBuilder();
+	private boolean flushScheduled = false;
 
 	private final List<Runnable> afterTasks = new ArrayList<>();
 
@@ -102,20 +139,22 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 			throw new IllegalStateException("Feed is already set up to IO");
 		running = true;
 		ended = false;
-		feed = new Thread(this);
-		feed.setName("Minecraft Console IO Feed");
-		feed.setDaemon(true);
-		feed.setPriority(Thread.MIN_PRIORITY);
-		feed.start();
+		IO.execute(this);
 	}
 	public void setShowPrompt(boolean show) {
 		showPrompt = show;
 	}
+	// the thread currently reading for this feed, null if the feed isn't running
 	public Thread getFeedThread() {
 		return feed;
 	}
 	public void stop() {
-		running = false;
+		// wake the feed up if it's waiting for input
+		synchronized (FEED_LOCK) {
+			running = false;
+			if (feed != null)
+				feed.interrupt();
+		}
 	}
 	public boolean hasEnded() {
 		return ended;
@@ -152,9 +191,13 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 		}
 		else if (initialized && running && !ended) {
 			try {
-				if (out != null) synchronized (LOCK) {
-					byte[] arr = encoder.encode(string + "\n");
-					outgoing.write(arr);
+				if (out != null) {
+					synchronized (LOCK) {
+						byte[] arr = encoder.encode(string + "\n");
+						outgoing.write(arr);
+					}
+					// the output stream could block, so forward the input from an IO thread
+					IO.execute(this::flushOutgoing);
 				}
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -182,36 +225,41 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 
 	@Override
 	public void run() {
+		synchronized (FEED_LOCK) {
+			feed = Thread.currentThread();
+		}
 		try {
+			CharsetDecoder decoder = encoder.decoder();
+			ByteBuffer input = ByteBuffer.allocate(READ_SIZE);
+			CharBuffer chars = decoder == null ? null : CharBuffer.allocate(READ_SIZE);
 			while (running) {
-				synchronized (LOCK) {
-					if (outgoing.size() > 0 && out != null) {
-						out.write(outgoing.toByteArray());
-						outgoing = new ByteArrayOutputStream();
-					}
-					boolean eof = false;
-					while (in.available() > 0) {
-						int v = in.read();
-						if (v == -1) {
-							eof = true;
-							break;
-						}
-						else
-							buffer.write(v);
-					}
-					if (buffer.size() > 0) {
-						String result = encoder.get(buffer.toByteArray());
-						if (result != null)
-							writeConsole(result);
-						buffer = new ByteArrayOutputStream();
-					}
-					if (eof) {
-						break;
-					}
+				// block for at least one byte, but don't wait on more than what is available
+				int len = Math.min(input.remaining(), Math.max(1, in.available()));
+				int read = in.read(input.array(), input.position(), len);
+				if (read == -1 || !running)
+					break;
+				input.position(input.position() + read);
+				input.flip();
+				if (decoder != null) {
+					// incomplete characters are left in the buffer until the rest of their bytes arrive
+					decode(decoder, input, chars, false);
+					input.compact();
+				}
+				else {
+					String result = encoder.get(Arrays.copyOf(input.array(), input.limit()));
+					if (result != null)
+						writeConsole(result);
+					input.clear();
 				}
-				Thread.sleep(50);
+			}
+			if (decoder != null) {
+				input.flip();
+				decode(decoder, input, chars, true);
+				decoder.flush(chars);
+				drain(chars);
 			}
 		}
+		catch (InterruptedIOException ignored) {}
 		catch (Exception e) {
 			synchronized (LOCK) {
 				if (Consoles.debug)
@@ -220,6 +268,11 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 			}
 		}
 		finally {
+			synchronized (FEED_LOCK) {
+				feed = null;
+				// clear the interrupt flag if we were stopped, this thread will be re-used
+				Thread.interrupted();
+			}
 			ended = true;
 			running = false;
 			synchronized (LOCK) {
@@ -227,6 +280,9 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 					writeConsole("\n" + prompt);
 				}
 			}
+			synchronized (TASK_LOCK) {
+				TASK_LOCK.notifyAll();
+			}
 			waitFor();
 			Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), () -> {
 				List<Runnable> currentTasks = Arrays.asList(afterTasks.stream().toArray(Runnable[]::new));
@@ -236,25 +292,70 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 					if (currentTasks.contains(it.next()))
 						it.remove();
 			});
-			synchronized (TASK_LOCK) {
-				TASK_LOCK.notify();
+		}
+	}
+	private void decode(CharsetDecoder decoder, ByteBuffer input, CharBuffer chars, boolean end) {
+		CoderResult result;
+		do {
+			result = decoder.decode(input, chars, end);
+			drain(chars);
+		}
+		while (result.isOverflow());
+	}
+	private void drain(CharBuffer chars) {
+		chars.flip();
+		if (chars.hasRemaining())
+			writeConsole(chars.toString());
+		chars.clear();
+	}
+	private void flushOutgoing() {
+		synchronized (LOCK) {
+			try {
+				if (outgoing.size() > 0 && out != null) {
+					outgoing.writeTo(out);
+					out.flush();
+				}
+			}
+			catch (IOException e) {
+				if (Consoles.debug)
+					e.printStackTrace();
+			}
+			finally {
+				outgoing.reset();
 			}
 		}
 	}
+	// queues text to be printed, text queued within the same tick is printed with one repaint
 	private void writeConsole(String text) {
-		if (Consoles.getInstance().isEnabled()) {
-			AtomicInteger id = new AtomicInteger(-1);
-			id.set(Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), () -> {
-				this.print(text);
-				repaint();
-				synchronized (TASK_LOCK) {
-					tasks.remove((Integer) id.get());
-					TASK_LOCK.notify();
-				}
-			}));
+		synchronized (TASK_LOCK) {
+			pending.append(text);
+			if (flushScheduled)
+				return;
+			flushScheduled = true;
+		}
+		if (!Consoles.getInstance().isEnabled() ||
+				Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), this::flushConsole) == -1) {
+			synchronized (TASK_LOCK) {
+				pending.setLength(0);
+				flushScheduled = false;
+				TASK_LOCK.notifyAll();
+			}
+		}
+	}
+	private void flushConsole() {
+		while (true) {
+			String text;
 			synchronized (TASK_LOCK) {
-				tasks.add(id.get());
+				if (pending.length() == 0) {
+					flushScheduled = false;
+					TASK_LOCK.notifyAll();
+					return;
+				}
+				text = pending.toString();
+				pending.setLength(0);
 			}
+			print(text);
+			repaint();
 		}
 	}
 
@@ -268,7 +369,7 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 	public void waitFor() {
 		synchronized (TASK_LOCK) {
 			try {
-				while (tasks.size() > 0 || !ended) {
+				while (flushScheduled || !ended) {
 					TASK_LOCK.wait();
 				}
 			}
@@ -280,6 +381,10 @@ public class ConsoleFeed extends ConsoleTextArea implements Runnable {
 	public interface FeedEncoder {
 		String get(byte[] read);
 		byte[] encode(String text);
+		// decoder used to decode input incrementally, if null, each read is passed to get(byte[])
+		default CharsetDecoder decoder() {
+			return null;
+		}
 	}
 	public interface FeedCreator {
 		void from(String input);
@@ -122,7 +122,30 @@ public class ConsoleGraphics implements CanvasGraphics {
 		}
 		else return (byte) 0;
 	}
+	// map color for a chat color code, or the given color if the code is a formatting code
 	@SuppressWarnings("ConstantConditions")
+	public static byte mapColor(ChatColor chatColor, byte color) {
+		switch (chatColor) {
+			case WHITE: color = 32; break;
+			case DARK_GRAY: color = 24; break;
+			case GRAY: color = 36; break;
+			case BLACK: color = 119; break;
+			case DARK_BLUE: color = 48; break;
+			case DARK_AQUA: color = 127; break;
+			case AQUA: color = 125; break;
+			case BLUE: color = 70; break;
+			case DARK_GREEN: color = 28; break;
+			case GREEN: color = 6; break;
+			case DARK_PURPLE: color = 67; break;
+			case LIGHT_PURPLE: color = 66; break;
+			case YELLOW: color = 74; break;
+			case RED: color = 114; break;
+			case DARK_RED: color = 115; break;
+			case GOLD: color = 61; break;
+			case RESET: color = 32; break;
+		}
+		return color;
+	}
 	public final byte drawFormatted(int x, int y, byte inherit, String text, CharacterModifier modifier) {
 		int at = 0;
 		int i = 0;
@@ -133,26 +156,7 @@ public class ConsoleGraphics implements CanvasGraphics {
 		for (char c : arr) {
 			if (i != text.length() - 1 &&
 					c == '\u00A7' && CColor.colorCharRange(arr[i + 1])) {
-				ChatColor chatColor = ChatColor.getByChar((arr[i + 1] + "").toLowerCase().charAt(0));
-				switch (chatColor) {
-					case WHITE: color = 32; break;
-					case DARK_GRAY: color = 24; break;
-					case GRAY: color = 36; break;
-					case BLACK: color = 119; break;
-					case DARK_BLUE: color = 48; break;
-					case DARK_AQUA: color = 127; break;
-					case AQUA: color = 125; break;
-					case BLUE: color = 70; break;
-					case DARK_GREEN: color = 28; break;
-					case GREEN: color = 6; break;
-					case DARK_PURPLE: color = 67; break;
-					case LIGHT_PURPLE: color = 66; break;
-					case YELLOW: color = 74; break;
-					case RED: color = 114; break;
-					case DARK_RED: color = 115; break;
-					case GOLD: color = 61; break;
-					case RESET: color = 32; break;
-				}
+				color = mapColor(ChatColor.getByChar((arr[i + 1] + "").toLowerCase().charAt(0)), color);
 				skipNext = true;
 			}
 			else if(skipNext) {
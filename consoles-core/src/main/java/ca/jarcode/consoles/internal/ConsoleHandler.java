@@ -1,8 +1,6 @@
 package ca.jarcode.consoles.internal;
 
 import ca.jarcode.consoles.api.nms.ConsolesNMS;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import ca.jarcode.consoles.Consoles;
 import ca.jarcode.consoles.messaging.ConsoleBungeeHook;
 import org.bukkit.*;
@@ -28,6 +26,7 @@ import org.bukkit.plugin.Plugin;
 
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -70,7 +69,6 @@ public class ConsoleHandler implements Listener {
 
 	static {
 		INSTANCE = new ConsoleHandler();
-		INSTANCE.paintThread.start();
 	}
 
 	private static Object get(Field field, Object instance) {
@@ -88,16 +86,17 @@ public class ConsoleHandler implements Listener {
 
 	// thread-safe array list
 	CopyOnWriteArrayList<ManagedConsole> consoles = new CopyOnWriteArrayList<>();
-	// we lock allocation code because it has to be accessed from the painting thread to send packets
+	// we lock allocation code when modifying tables, lookups from the painting threads
+	// use the published snapshots of each table and don't need to lock
 	private final Object ALLOCATION_LOCK = new Object();
 	// this holds all indexes of the maps that the server refers to
-	private ArrayList<Short> defaultAllocation = new ArrayList<>();
+	private final BitSet defaultAllocation = new BitSet();
 	// this is the index mappings for every client
-	private Map<String, BiMap<Short, Short>> allocations = new HashMap<>();
-	// the painter (Runnable) ran in separate thread that handles requests/paints
+	private final Map<String, MapAllocationTable> allocations = new ConcurrentHashMap<>();
+	// spatial index of consoles, also tracks the players close to each console
+	private final ConsoleIndex index = new ConsoleIndex();
+	// the painter that handles requests/paints, backed by its own pool of painting threads
 	private final MapPainter painter = new MapPainter();
-	// the single thread used for painting
-	private final Thread paintThread = new Thread(painter);
 
 	public final List<RawInteractionListener> interactionHooks = new ArrayList<>();
 
@@ -112,11 +111,6 @@ public class ConsoleHandler implements Listener {
 
 	public boolean local = true;
 
-	{
-		paintThread.setDaemon(true);
-		paintThread.setName("Console Painting Thread");
-	}
-
 	public ConsoleHandler() {
 
 		ConsolesNMS.internals.setCommandBlocksEnabled(true);
@@ -133,86 +127,70 @@ public class ConsoleHandler implements Listener {
 	}
 
 	public short translateIndex(String context, short global) {
-		synchronized (ALLOCATION_LOCK) {
-			if (!getIndexTable(context).containsKey(global))
-				return -1;
-			else return grabIndex(context, global);
+		MapAllocationTable table = allocations.get(context);
+		if (table == null) synchronized (ALLOCATION_LOCK) {
+			table = getIndexTable(context);
 		}
-	}
-	private short grabIndex(String context, short global) {
-		Short s = allocations.containsKey(context) ? allocations.get(context).get(global) : Short.valueOf((short) 0);
-		return s == null ? 0 : s;
+		return table.translate(global);
 	}
 	// this takes all the currently allocated values for this context and
-	// remaps them to -ive keys, and re-allocates all the global values to
-	// new context values
+	// retires them (they stay reserved), and re-allocates all the global
+	// values to new context values
 	//
 	// used to refresh map damage values after a dimension change
 	//
 	// returns true if successful, false if there is no room to allocate
 	public boolean allocateNew(String context) {
-		if (!Thread.holdsLock(ALLOCATION_LOCK)) synchronized (ALLOCATION_LOCK) {
-			return allocateNew(context);
-		}
-		Map<Short, Short> target = getIndexTable(context);
-		Map<Short, Short> old = HashBiMap.create();
-		for (Map.Entry<Short, Short> entry : target.entrySet()) {
-			for (short t = -1; ; t--) {
-				if (!old.containsKey(t)) {
-					old.put(t, entry.getValue());
-					break;
+		synchronized (ALLOCATION_LOCK) {
+			MapAllocationTable target = getIndexTable(context);
+			target.retireAll();
+			try {
+				for (int index = defaultAllocation.nextSetBit(0); index >= 0;
+				     index = defaultAllocation.nextSetBit(index + 1)) {
+					if (target.map((short) index) == -1) return false;
 				}
 			}
+			finally {
+				target.publish();
+			}
+			return true;
 		}
-		target.clear();
-		for (Map.Entry<Short, Short> entry : old.entrySet()) {
-			target.put(entry.getKey(), entry.getValue());
-		}
-		for (short index : defaultAllocation) {
-			short to = mapIndex(context, index);
-			if (to == Short.MAX_VALUE) return false;
-		}
-		return true;
 	}
 	// this is used to add new indexes from created maps
 	// if the global value already exists, nothing will happen,
 	// and the current key is returned.
 	public short mapIndex(String context, short global) {
-		if (!Thread.holdsLock(ALLOCATION_LOCK)) synchronized (ALLOCATION_LOCK) {
-			return mapIndex(context, global);
-		}
-		Map<Short, Short> target = getIndexTable(context);
-		if (target.containsKey(global)) return target.get(global);
-		short result;
-		for (short t = Consoles.startingId;; t++) {
-			if (!target.containsValue(t)) {
-				target.put(global, t);
-				result = t;
-				break;
-			}
+		synchronized (ALLOCATION_LOCK) {
+			MapAllocationTable target = getIndexTable(context);
+			short result = target.map(global);
+			target.publish();
+			return result;
 		}
-		return result;
 	}
-	private BiMap<Short, Short> getIndexTable(String context) {
-		if (!allocations.containsKey(context)) {
-			BiMap<Short, Short> target = createTable();
+	private MapAllocationTable getIndexTable(String context) {
+		MapAllocationTable target = allocations.get(context);
+		if (target == null) {
+			target = createTable();
 			allocations.put(context, target);
-			return target;
 		}
-		else return allocations.get(context);
+		return target;
 	}
 	// when we create new allocation mappings for a client, we can copy over
 	// the global/default allocations
-	private BiMap<Short, Short> createTable() {
-		BiMap<Short, Short> target = HashBiMap.create();
-		for (short s : defaultAllocation) {
-			target.put(s, s);
+	private MapAllocationTable createTable() {
+		MapAllocationTable target = new MapAllocationTable(Consoles.startingId);
+		for (int s = defaultAllocation.nextSetBit(0); s >= 0; s = defaultAllocation.nextSetBit(s + 1)) {
+			target.identity((short) s);
 		}
+		target.publish();
 		return target;
 	}
 	public MapPainter getPainter() {
 		return painter;
 	}
+	public ConsoleIndex getIndex() {
+		return index;
+	}
 	@EventHandler
 	public void wrapCommandBlocks(PlayerInteractEvent e) {
 		if (e.getClickedBlock() != null && e.getClickedBlock().getState() instanceof CommandBlock) {
@@ -312,23 +290,16 @@ public class ConsoleHandler implements Listener {
 		}
 	}
 	public void replaceWithBlacklist(Player player, short[] ids) {
-		if (!Thread.holdsLock(ALLOCATION_LOCK)) synchronized (ALLOCATION_LOCK) {
-			replaceWithBlacklist(player, ids);
-		}
-		BiMap<Short, Short> target = HashBiMap.create();
-
-		short n = -1;
-		for (short id : ids) {
-			for (; ; n--) {
-				if (!target.containsKey(n)) {
-					target.put(n, id);
-					break;
-				}
+		synchronized (ALLOCATION_LOCK) {
+			MapAllocationTable target = new MapAllocationTable(Consoles.startingId);
+			for (short id : ids) {
+				target.reserve(id);
 			}
-		}
-		allocations.put(player.getName(), target);
-		for (short s : defaultAllocation) {
-			mapIndex(player.getName(), s);
+			for (int s = defaultAllocation.nextSetBit(0); s >= 0; s = defaultAllocation.nextSetBit(s + 1)) {
+				target.map((short) s);
+			}
+			target.publish();
+			allocations.put(player.getName(), target);
 		}
 	}
 	private void doLater(Runnable runnable) {
@@ -359,15 +330,8 @@ public class ConsoleHandler implements Listener {
 
 	public short[] getContextIds(Player player) {
 		synchronized (ALLOCATION_LOCK) {
-			if (!allocations.containsKey(player.getName())) return new short[0];
-			Map<Short, Short> map = getIndexTable(player.getName());
-			short[] arr = new short[map.size()];
-			int index = 0;
-			for (short s : map.values()) {
-				arr[index] = s;
-				index++;
-			}
-			return arr;
+			MapAllocationTable table = allocations.get(player.getName());
+			return table == null ? new short[0] : table.clientIds();
 		}
 	}
 	public void clearAllocations(Player player) {
@@ -446,11 +410,11 @@ public class ConsoleHandler implements Listener {
 		clickEvent(e.getPlayer(), e::setCancelled);
 	}
 	public ManagedConsole[] getConsolesLookingAt(Location eye) {
-		return consoles.stream().filter(console -> console.intersect(eye, 7) != null)
+		return index.near(eye, 7).stream().filter(console -> console.intersect(eye, 7) != null)
 				.toArray(ManagedConsole[]::new);
 	}
 	public boolean hittingConsole(Player player) {
-		for (ManagedConsole console : consoles.toArray(new ManagedConsole[consoles.size()])) {
+		for (ManagedConsole console : index.near(player.getEyeLocation(), 7)) {
 			if (console.created()) {
 				int[] arr = console.intersect(player.getEyeLocation(), 7);
 				if (arr != null)
@@ -461,7 +425,7 @@ public class ConsoleHandler implements Listener {
 	}
 	private void clickEvent(Player player, Consumer<Boolean> cancel) {
 		boolean cancelled = false;
-		for (ManagedConsole console : consoles.toArray(new ManagedConsole[consoles.size()])) {
+		for (ManagedConsole console : index.near(player.getEyeLocation(), 7)) {
 			if (console.created()) {
 				int[] arr = console.intersect(player.getEyeLocation(), 7);
 				if (arr != null) {
@@ -483,25 +447,17 @@ public class ConsoleHandler implements Listener {
 		removeAll();
 	}
 	public boolean isConsoleEntity(ItemFrame entity) {
-		for (ManagedConsole console : consoles) {
+		for (ManagedConsole console : index.near(entity.getLocation(), 1)) {
 			if (console.protect(entity))
 				return true;
 		}
 		return false;
 	}
 	public boolean isConsoleEntity(int id) {
-		for (ManagedConsole console : consoles) {
-			if (console.isFrameId(id))
-				return true;
-		}
-		return false;
+		return index.forFrame(id) != null;
 	}
 	public ManagedConsole getConsoleForId(int id) {
-		for (ManagedConsole console : consoles) {
-			if (console.isFrameId(id))
-				return console;
-		}
-		return null;
+		return index.forFrame(id);
 	}
 	public void removeAll() {
 		for (ManagedConsole console : consoles) {
@@ -514,17 +470,10 @@ public class ConsoleHandler implements Listener {
 		handleRemove(console, true);
 	}
 	private void handleRemove(ManagedConsole console, boolean rm) {
+		index.remove(console);
 		if (console.created()) {
 			int size = console.getFrameWidth() * console.getFrameHeight();
-			synchronized (ALLOCATION_LOCK) {
-				for (short t = console.getMapIndex(); t < console.getMapIndex() + size; t++) {
-					// update context allocations
-					for (Map<Short, Short> map : allocations.values()) {
-						map.remove(t);
-					}
-					defaultAllocation.remove(Short.valueOf(t));
-				}
-			}
+			free(console.getMapIndex(), size);
 		}
 		if (rm)
 			consoles.remove(console);
@@ -532,39 +481,39 @@ public class ConsoleHandler implements Listener {
 	// this allocates a block of indexes for the maps to use,
 	// and updates all the allocation mappings for active contexts.
 	public short allocate(int size) {
-		short lowest = Consoles.startingId;
 		synchronized (ALLOCATION_LOCK) {
-			while (!fits(lowest, size))
-				lowest++;
-			for (short t = lowest; t < lowest + size; t++) {
-				// update context allocations
-				for (String context : allocations.keySet()) {
-					if (getIndexTable(context).containsKey(t))
+			// find the lowest gap that fits the block
+			int lowest = Consoles.startingId;
+			for (int next = defaultAllocation.nextSetBit(lowest); next >= 0 && next < lowest + size;
+			     next = defaultAllocation.nextSetBit(lowest)) {
+				lowest = defaultAllocation.nextClearBit(next);
+			}
+			for (Map.Entry<String, MapAllocationTable> entry : allocations.entrySet()) {
+				MapAllocationTable table = entry.getValue();
+				for (int t = lowest; t < lowest + size; t++) {
+					// update context allocations
+					if (table.contains((short) t))
 						Consoles.getInstance().getLogger().warning(
-								String.format(lang.getString("allocation-overwrite"),context));
-					mapIndex(context, t);
+								String.format(lang.getString("allocation-overwrite"), entry.getKey()));
+					table.map((short) t);
 				}
-				defaultAllocation.add(t);
+				table.publish();
 			}
+			defaultAllocation.set(lowest, lowest + size);
+			return (short) lowest;
 		}
-		return lowest;
 	}
 	public void free(short index, int size) {
 		synchronized (ALLOCATION_LOCK) {
-			for (short t = index; t < index + size; t++) {
-				for (Map<Short, Short> map : allocations.values()) {
-					map.remove(t);
+			for (MapAllocationTable table : allocations.values()) {
+				for (int t = index; t < index + size; t++) {
+					table.remove((short) t);
 				}
-				defaultAllocation.remove(Short.valueOf(t));
+				table.publish();
 			}
+			defaultAllocation.clear(index, index + size);
 		}
 	}
-	private boolean fits(short i, int size) {
-		for (short index : defaultAllocation) {
-			if (index >= i && index < i + size) return false;
-		}
-		return true;
-	}
 	public List<ManagedConsole> get(String identifier) {
 		return consoles.stream()
 				.filter(console -> console.getIdentifier() != null && console.getIdentifier().equals(identifier))
@@ -0,0 +1,246 @@
+package ca.jarcode.consoles.internal;
+
+import ca.jarcode.consoles.Consoles;
+import ca.jarcode.consoles.util.LocalPosition;
+import ca.jarcode.consoles.util.Region;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+/*
+
+Spatial index for consoles, keyed by world and chunk. This is used to find the consoles
+around a location without checking every console on the server (clicks, entity lookups).
+
+This is also the single viewer tracker for every console. For each player, it keeps the
+consoles that could be in range while the player is in their current chunk section, and
+only checks those when the player moves to a different block. It tracks:
+
+- the players that are close enough to each console to be sent repaints
+- when players walk up to a console, so it can be painted for them
+
+ */
+public class ConsoleIndex implements Listener {
+
+	// players within this distance of a console are sent repaints
+	public static final int VIEW_DISTANCE = 64;
+	// players that walk within this distance (squared) of a console will have it painted for them
+	public static final int PAINT_DISTANCE_SQUARED = 1280;
+
+	private static long key(int chunkX, int chunkZ) {
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	// world -> chunk -> consoles that overlap the chunk
+	private final Map<UUID, Map<Long, List<ManagedConsole>>> worlds = new ConcurrentHashMap<>();
+	// tracking data for every player, only accessed from the main thread
+	private final Map<UUID, Tracker> players = new HashMap<>();
+	// entity ID -> console frame, used when translating packets
+	private final FrameIndex frames = new FrameIndex();
+
+	// must be called once the console is created
+	void add(ManagedConsole console) {
+		Map<Long, List<ManagedConsole>> chunks =
+				worlds.computeIfAbsent(console.pos.getWorld().getUID(), (uid) -> new ConcurrentHashMap<>());
+		forEachChunk(console, (key) -> chunks.computeIfAbsent(key, (k) -> new CopyOnWriteArrayList<>()).add(console));
+		frames.add(console);
+		// the consoles around players have changed, so find them again
+		for (Tracker tracker : players.values()) {
+			tracker.candidates = null;
+		}
+		for (Player player : Bukkit.getOnlinePlayers()) {
+			update(player, player.getLocation(), false);
+		}
+	}
+	void remove(ManagedConsole console) {
+		if (!console.created())
+			return;
+		frames.remove(console);
+		Map<Long, List<ManagedConsole>> chunks = worlds.get(console.pos.getWorld().getUID());
+		if (chunks != null) {
+			forEachChunk(console, (key) -> {
+				List<ManagedConsole> list = chunks.get(key);
+				if (list != null) {
+					list.remove(console);
+					if (list.isEmpty())
+						chunks.remove(key);
+				}
+			});
+		}
+		for (Tracker tracker : players.values()) {
+			if (tracker.candidates != null)
+				tracker.candidates.remove(console);
+			tracker.viewing.remove(console);
+			tracker.inside.remove(console);
+		}
+		console.viewers.clear();
+	}
+	private void forEachChunk(ManagedConsole console, LongConsumer consumer) {
+		Region bounds = console.getBounds();
+		LocalPosition origin = bounds.getOrigin();
+		for (int x = origin.x >> 4; x <= (origin.x + bounds.getWidth() - 1) >> 4; x++) {
+			for (int z = origin.z >> 4; z <= (origin.z + bounds.getDepth() - 1) >> 4; z++) {
+				consumer.accept(key(x, z));
+			}
+		}
+	}
+
+	/**
+	 * Finds the consoles in the chunks that are within the given radius of a location. This
+	 * is a broad check, consoles returned may still be further away than the radius.
+	 *
+	 * @param location the location to search around
+	 * @param radius the radius (in blocks) to search
+	 * @return the consoles around the location
+	 */
+	public Set<ManagedConsole> near(Location location, int radius) {
+		Map<Long, List<ManagedConsole>> chunks = worlds.get(location.getWorld().getUID());
+		if (chunks == null || chunks.isEmpty())
+			return Collections.emptySet();
+		Set<ManagedConsole> result = new HashSet<>();
+		int bx = location.getBlockX(), bz = location.getBlockZ();
+		for (int x = (bx - radius) >> 4; x <= (bx + radius) >> 4; x++) {
+			for (int z = (bz - radius) >> 4; z <= (bz + radius) >> 4; z++) {
+				List<ManagedConsole> list = chunks.get(key(x, z));
+				if (list != null)
+					result.addAll(list);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the console that the item frame with the given entity ID belongs to. This
+	 * does not lock or allocate, and is safe to call from any thread.
+	 *
+	 * @param entityId the entity ID of the item frame
+	 * @return the console, or null if the entity is not part of a console
+	 */
+	public ManagedConsole forFrame(int entityId) {
+		FrameIndex.Frame frame = frames.get(entityId);
+		return frame == null ? null : frame.console;
+	}
+
+	// re-calculates the consoles the player is close to, painting the consoles they walked up to
+	private void update(Player player, Location at, boolean paint) {
+		Tracker tracker = players.computeIfAbsent(player.getUniqueId(), (uid) -> new Tracker());
+		UUID world = at.getWorld().getUID();
+		int sx = at.getBlockX() >> 4, sy = at.getBlockY() >> 4, sz = at.getBlockZ() >> 4;
+		// find the consoles that could be in range from anywhere in this chunk section
+		if (tracker.candidates == null || !world.equals(tracker.world)
+				|| sx != tracker.sx || sy != tracker.sy || sz != tracker.sz) {
+			tracker.candidates = near(at, VIEW_DISTANCE + 16);
+			tracker.world = world;
+			tracker.sx = sx;
+			tracker.sy = sy;
+			tracker.sz = sz;
+		}
+		// nothing around this player
+		if (tracker.candidates.isEmpty() && tracker.viewing.isEmpty())
+			return;
+		Set<ManagedConsole> viewing = new HashSet<>();
+		Set<ManagedConsole> inside = new HashSet<>();
+		for (ManagedConsole console : tracker.candidates) {
+			if (!console.created() || console.pos.getWorld() != at.getWorld())
+				continue;
+			double distance = console.pos.distanceSquared(at);
+			if (distance <= VIEW_DISTANCE * VIEW_DISTANCE)
+				viewing.add(console);
+			if (distance <= PAINT_DISTANCE_SQUARED)
+				inside.add(console);
+		}
+		for (ManagedConsole console : tracker.viewing) {
+			if (!viewing.contains(console))
+				console.viewers.remove(player);
+		}
+		for (ManagedConsole console : viewing) {
+			if (!tracker.viewing.contains(console))
+				console.viewers.add(player);
+		}
+		// if the player entered the radius, update the painting
+		if (paint) {
+			for (ManagedConsole console : inside) {
+				if (!tracker.inside.contains(console))
+					console.getPixelBuffer().updateFor(player, false, true);
+			}
+		}
+		tracker.viewing = viewing;
+		tracker.inside = inside;
+	}
+	private void remove(Player player) {
+		Tracker tracker = players.remove(player.getUniqueId());
+		if (tracker != null) {
+			for (ManagedConsole console : tracker.viewing) {
+				console.viewers.remove(player);
+			}
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	@SuppressWarnings("unused")
+	public void onPlayerMove(PlayerMoveEvent e) {
+		Location from = e.getFrom(), to = e.getTo();
+		// only update when the player moves to a different block
+		if (from.getWorld() != to.getWorld() || from.getBlockX() != to.getBlockX()
+				|| from.getBlockY() != to.getBlockY() || from.getBlockZ() != to.getBlockZ())
+			update(e.getPlayer(), to, true);
+	}
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	@SuppressWarnings("unused")
+	public void onPlayerTeleport(PlayerTeleportEvent e) {
+		update(e.getPlayer(), e.getTo(), true);
+	}
+	@EventHandler(priority = EventPriority.MONITOR)
+	@SuppressWarnings("unused")
+	public void onPlayerRespawn(PlayerRespawnEvent e) {
+		update(e.getPlayer(), e.getRespawnLocation(), true);
+	}
+	// We take the join events and update a player's paintings after
+	// This way, when a player moves within range of the console,
+	// this painting is updated for them (because they haven't had it rendered since they joined!)
+	@EventHandler(priority = EventPriority.MONITOR)
+	@SuppressWarnings("unused")
+	public void onPlayerJoin(PlayerJoinEvent e) {
+		Player player = e.getPlayer();
+		update(player, player.getLocation(), false);
+		// delay initial map packets
+		Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), () -> {
+			Tracker tracker = players.get(player.getUniqueId());
+			if (tracker != null && player.isOnline()) {
+				for (ManagedConsole console : tracker.inside) {
+					console.getPixelBuffer().updateFor(player, true, true);
+				}
+			}
+		}, 10L);
+	}
+	@EventHandler(priority = EventPriority.MONITOR)
+	@SuppressWarnings("unused")
+	public void onPlayerQuit(PlayerQuitEvent e) {
+		remove(e.getPlayer());
+		for (ManagedConsole console : ConsoleHandler.getInstance().getConsoles()) {
+			console.getPixelBuffer().removeContext(e.getPlayer().getName());
+		}
+	}
+
+	// tracking data for a single player
+	private static class Tracker {
+		// the world and chunk section the candidates were found from
+		UUID world;
+		int sx, sy, sz;
+		// consoles that could be in range while the player is in this chunk section
+		Set<ManagedConsole> candidates = null;
+		// consoles the player is receiving repaints for
+		Set<ManagedConsole> viewing = new HashSet<>();
+		// consoles that the player is close enough to have painted
+		Set<ManagedConsole> inside = new HashSet<>();
+	}
+}
@@ -39,7 +39,7 @@ public class ConsoleMapRenderer {
 		if (!renderer.created()) return false;
 
 		// this switch determines whether the packet should be sent to the client.
-		// it is only true/fired if this section of the pixel buffer has been written to since the last check,
+		// it is only fired if this section of the pixel buffer has been written to since the last check,
 		// and returns null if the context has never been written to for the entire console
 		ConsolePixelBuffer.UpdateSwitch update = pixelBuffer.getSwitch(context, x, y);
 
@@ -47,16 +47,41 @@ public class ConsoleMapRenderer {
 		short clientId = ConsoleHandler.getInstance().translateIndex(context, id);
 		// send an update if an update was fired, or if the context map id hasn't been seen to this player before
 		short lastId = getLastId(context);
-		if ((update != null && update.wasFired()) || lastId != clientId) {
+
+		// grab the dirty region and reset the switch
+		boolean fired = update != null && update.fired();
+		boolean full = !fired || update.full();
+		int dx = 0, dy = 0, dw = ConsolePixelBuffer.SIZE, dh = ConsolePixelBuffer.SIZE;
+		if (fired) {
+			dx = update.getX();
+			dy = update.getY();
+			dw = update.getWidth();
+			dh = update.getHeight();
+			update.reset();
+		}
+
+		if (fired || lastId != clientId) {
 			if (lastId == -1)
 				return true;
-			byte[] data = pixelBuffer.getBuffer(context, x, y);
 			// if the id of the map for this player changed, send them an update packet
+			// for the entire map, since the client doesn't have anything for it yet
 			if (lastId != clientId) {
 				newContexts.put(context, clientId);
+				full = true;
 			}
-			// create the packet
-			Object packet = ConsolesNMS.packetInternals.createMapPacket(data, clientId);
+			if (full) {
+				dx = 0;
+				dy = 0;
+				dw = ConsolePixelBuffer.SIZE;
+				dh = ConsolePixelBuffer.SIZE;
+			}
+			// build the data for the area we're sending from the base layer and the context's overlay
+			byte[] data = pixelBuffer.compose(context, x, y, dx, dy, dw, dh);
+			if (data == null)
+				return true;
+			// create the packet, only containing the dirty region if we can
+			Object packet = full ? ConsolesNMS.packetInternals.createMapPacket(data, clientId)
+					: ConsolesNMS.packetInternals.createMapPacket(data, clientId, dx, dy, dw, dh);
 			// send the packet
 			if (packet != null)
 				connection.sendPacket(packet);
@@ -1,18 +1,12 @@
 package ca.jarcode.consoles.internal;
 
-import ca.jarcode.consoles.Consoles;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.HandlerList;
-import org.bukkit.event.Listener;
-import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
-import org.bukkit.event.player.PlayerQuitEvent;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
 
@@ -21,21 +15,34 @@ The single buffer that exists for every console. This is a somewhat complex clas
 This buffer will handle some events/triggers, and contains the data for every
 context (player).
 
+Most components paint the same content for every context, so instead of keeping
+a full copy of the console for every player, there is a single base layer that
+is shared between contexts. A context only gets its own (overlay) tiles when
+something it paints actually differs from the base layer.
+
  */
 public class ConsolePixelBuffer {
 
 	// painting width and height. I doubt this will change.
 	public static final int SIZE = 128;
 
-	// segmented buffers for every context
-	HashMap<String, byte[][][]> buffers = new HashMap<>();
-	// flipped when a single map needs to update
-	// triggered on forced repaints/updates and when a pixel in this map is modified
-	HashMap<String, UpdateSwitch[][]> switches = new HashMap<>();
+	// width and height of the overlay tiles, SIZE has to be a multiple of this
+	static final int TILE = 32;
+	// amount of tiles (in one dimension) in a single map
+	private static final int TILES = SIZE / TILE;
+
+	// shared base layer, segmented for every map
+	private final byte[][][] base;
+	// overlay data and update switches for every context
+	private final Map<String, Overlay> contexts = new ConcurrentHashMap<>();
+	// the context that writes to the base layer, this is the first context that
+	// paints after a repaint has been called.
+	private String baseWriter = null;
+	// whether the first paint after a repaint is still in progress, the base layer is only written to in
+	// that pass. Anything painted for a single context after it only goes to that context's overlay.
+	private boolean basePass = false;
 	// flipped when the buffer needs to be repainted for a context
 	List<String> repaintStack = new ArrayList<>();
-	// player listener, used to trigger updates on certain events
-	private PlayerListener listener;
 	// console renderer this belongs to
 	private ConsoleRenderer renderer;
 	// width and height
@@ -45,139 +52,264 @@ public class ConsolePixelBuffer {
 		this.w = w;
 		this.h = h;
 		this.renderer = renderer;
+		base = new byte[w][h][SIZE * SIZE];
 	}
 	void onCreate() {
-		listener = new PlayerListener();
-		Bukkit.getPluginManager().registerEvents(listener, Consoles.getInstance());
 		for (Player player : Bukkit.getOnlinePlayers()) {
 			updateFor(player, true, true);
 		}
 	}
-	private byte[][][] newBuffer() {
-		return new byte[w][h][SIZE * SIZE];
-	}
-	private UpdateSwitch[][] initSwitches(String str) {
-		UpdateSwitch[][] updated = new UpdateSwitch[w][h];
-		for (int i = 0; i < w; i++) {
-			for (int j = 0; j < h; j++) {
-				updated[i][j] = new UpdateSwitch();
-			}
+	private Overlay overlay(String context) {
+		Overlay overlay = contexts.get(context);
+		if (overlay == null) {
+			overlay = new Overlay();
+			contexts.put(context, overlay);
 		}
-		switches.put(str, updated);
-		return updated;
+		return overlay;
 	}
 	public byte get(int x, int y, String context) {
-		byte[][][] buffer = buffers.get(context);
-		if (buffer == null)
-			return 0;
-		if (x / SIZE >= 0 && x / SIZE < this.w && y / SIZE >= 0 && y / SIZE < this.h)
-			return buffer[x / SIZE][y / SIZE][x % SIZE + ((y % SIZE) * SIZE)];
+		Overlay overlay = contexts.get(context);
+		if (x >= 0 && x < this.w * SIZE && y >= 0 && y < this.h * SIZE) {
+			// contexts that haven't painted anything yet are looking at the base layer
+			byte[] tile = overlay == null ? null : overlay.tiles[x / TILE][y / TILE];
+			if (tile != null)
+				return tile[x % TILE + ((y % TILE) * TILE)];
+			else
+				return base[x / SIZE][y / SIZE][x % SIZE + ((y % SIZE) * SIZE)];
+		}
 		else return 0;
 	}
 	public void set(int x, int y, byte b, String context) {
-		byte[][][] buffer = buffers.get(context);
-		UpdateSwitch[][] updated = switches.get(context);
-		if (buffer == null) {
-			buffer = newBuffer();
-			buffers.put(context, buffer);
+		Overlay overlay = overlay(context);
+		if (x < 0 || x >= this.w * SIZE || y < 0 || y >= this.h * SIZE)
+			return;
+		int mx = x / SIZE, my = y / SIZE, lx = x % SIZE, ly = y % SIZE;
+		byte[] tile = overlay.tiles[x / TILE][y / TILE];
+		if (basePass && baseWriter == null)
+			baseWriter = context;
+		// the context painting the base layer shouldn't keep its own copy of it, move the tile into the base
+		if (tile != null && basePass && context.equals(baseWriter)) {
+			merge(overlay, x / TILE, y / TILE);
+			tile = null;
 		}
-		if (updated == null) {
-			updated = initSwitches(context);
+		// this context already differs from the base layer here, so just write to its tile
+		if (tile != null) {
+			int i = x % TILE + ((y % TILE) * TILE);
+			if (tile[i] != b) {
+				tile[i] = b;
+				overlay.switches[mx][my].fire(lx, ly);
+			}
+			return;
 		}
-		if (x >= 0 && x < this.w * SIZE && y >= 0 && y < this.h * SIZE) {
-			buffer[x / SIZE][y / SIZE][x % SIZE + ((y % SIZE) * SIZE)] = b;
-			updated[x / SIZE][y / SIZE].fire();
+		byte[] section = base[mx][my];
+		int i = lx + (ly * SIZE);
+		// nothing changed for this context
+		if (section[i] == b)
+			return;
+		// if this is the context that is painting the base layer, write to it and update
+		// every other context that is looking at the base layer for this pixel. Those contexts
+		// are all repainted after this pass, so anything that differs for them ends up in their overlay.
+		if (basePass && context.equals(baseWriter)) {
+			section[i] = b;
+			for (Overlay other : contexts.values()) {
+				if (other.tiles[x / TILE][y / TILE] == null)
+					other.switches[mx][my].fire(lx, ly);
+			}
+		}
+		// otherwise, we need to copy the tile from the base layer and write to that instead
+		else {
+			tile = new byte[TILE * TILE];
+			int ox = lx - (lx % TILE), oy = ly - (ly % TILE);
+			for (int j = 0; j < TILE; j++) {
+				System.arraycopy(section, ox + ((oy + j) * SIZE), tile, j * TILE, TILE);
+			}
+			tile[x % TILE + ((y % TILE) * TILE)] = b;
+			overlay.tiles[x / TILE][y / TILE] = tile;
+			overlay.sectionTiles[mx][my]++;
+			overlay.count++;
+			overlay.switches[mx][my].fire(lx, ly);
+		}
+	}
+	// writes a tile of a context into the base layer and drops it from the context's overlay
+	private void merge(Overlay overlay, int tx, int ty) {
+		byte[] tile = overlay.tiles[tx][ty];
+		int mx = (tx * TILE) / SIZE, my = (ty * TILE) / SIZE;
+		int ox = (tx * TILE) % SIZE, oy = (ty * TILE) % SIZE;
+		byte[] section = base[mx][my];
+		for (int j = 0; j < TILE; j++) {
+			System.arraycopy(tile, j * TILE, section, ox + ((oy + j) * SIZE), TILE);
+		}
+		drop(overlay, tx, ty);
+		// everything looking at the base layer here may have changed
+		for (Overlay other : contexts.values()) {
+			if (other.tiles[tx][ty] == null) {
+				other.switches[mx][my].fire(ox, oy);
+				other.switches[mx][my].fire(ox + TILE - 1, oy + TILE - 1);
+			}
+		}
+	}
+	// drops a tile from an overlay, the context looks at the base layer there afterwards
+	private void drop(Overlay overlay, int tx, int ty) {
+		int mx = (tx * TILE) / SIZE, my = (ty * TILE) / SIZE;
+		int ox = (tx * TILE) % SIZE, oy = (ty * TILE) % SIZE;
+		overlay.tiles[tx][ty] = null;
+		overlay.sectionTiles[mx][my]--;
+		overlay.count--;
+		overlay.switches[mx][my].fire(ox, oy);
+		overlay.switches[mx][my].fire(ox + TILE - 1, oy + TILE - 1);
+	}
+	// builds the data for a region of a map, composing the base layer with the overlay of the context.
+	// If the entire map is requested and the context has no tiles in it, the base section is used directly.
+	byte[] compose(String context, int mx, int my, int x, int y, int w, int h) {
+		Overlay overlay = contexts.get(context);
+		if (overlay == null)
+			return null;
+		byte[] section = base[mx][my];
+		if (overlay.sectionTiles[mx][my] == 0 && x == 0 && y == 0 && w == SIZE && h == SIZE)
+			return section;
+		byte[] region = new byte[w * h];
+		for (int j = 0; j < h; j++) {
+			int ly = y + j;
+			int i = 0;
+			while (i < w) {
+				int lx = x + i;
+				// copy up to the end of the tile we're in
+				int len = Math.min(w - i, TILE - (lx % TILE));
+				byte[] tile = overlay.tiles[(mx * TILES) + (lx / TILE)][(my * TILES) + (ly / TILE)];
+				if (tile != null)
+					System.arraycopy(tile, (lx % TILE) + ((ly % TILE) * TILE), region, i + (j * w), len);
+				else
+					System.arraycopy(section, lx + (ly * SIZE), region, i + (j * w), len);
+				i += len;
+			}
+		}
+		return region;
+	}
+	// estimated amount of memory used by the pixel data for this console, in bytes
+	public long getMemoryUsage() {
+		long tiles = 0;
+		for (Overlay overlay : contexts.values()) {
+			tiles += overlay.count;
+		}
+		return ((long) w * h * SIZE * SIZE) + (tiles * TILE * TILE);
+	}
+	// drops all the data for a context, called when a player leaves
+	void removeContext(String context) {
+		for (ConsoleMapRenderer map : renderer.renderers()) {
+			map.clearContextCache(context);
+		}
+		synchronized (renderer.RENDERER_LOCK) {
+			repaintStack.remove(context);
+		}
+		contexts.remove(context);
+	}
+	private class Overlay {
+		// sparse tiles, null where this context is using the base layer
+		final byte[][][] tiles = new byte[w * TILES][h * TILES][];
+		// amount of tiles allocated in each map
+		final int[][] sectionTiles = new int[w][h];
+		final UpdateSwitch[][] switches = new UpdateSwitch[w][h];
+		int count = 0;
+		{
+			for (int i = 0; i < w; i++) {
+				for (int j = 0; j < h; j++) {
+					switches[i][j] = new UpdateSwitch();
+				}
+			}
 		}
 	}
 	static class UpdateSwitch {
 
-		private boolean fired = false;
+		// dirty bounds for this map, min inclusive and max exclusive.
+		// if nothing is dirty, the min values are larger than the max values.
+		private int minX = SIZE, minY = SIZE, maxX = 0, maxY = 0;
+
+		// marks the entire map as dirty
 		public void fire() {
-			fired = true;
+			minX = 0;
+			minY = 0;
+			maxX = SIZE;
+			maxY = SIZE;
+		}
+		// marks a single pixel as dirty, expanding the bounds to include it
+		public void fire(int x, int y) {
+			if (x < minX) minX = x;
+			if (y < minY) minY = y;
+			if (x >= maxX) maxX = x + 1;
+			if (y >= maxY) maxY = y + 1;
+		}
+		public boolean fired() {
+			return minX < maxX && minY < maxY;
 		}
 		public boolean wasFired() {
-			boolean b = fired;
-			fired = false;
+			boolean b = fired();
+			reset();
 			return b;
 		}
+		public void reset() {
+			minX = SIZE;
+			minY = SIZE;
+			maxX = 0;
+			maxY = 0;
+		}
+		public boolean full() {
+			return minX == 0 && minY == 0 && maxX == SIZE && maxY == SIZE;
+		}
+		public int getX() {
+			return minX;
+		}
+		public int getY() {
+			return minY;
+		}
+		public int getWidth() {
+			return maxX - minX;
+		}
+		public int getHeight() {
+			return maxY - minY;
+		}
 	}
 	boolean needsRepaint(String context) {
 		return !repaintStack.contains(context);
 	}
 	void switchRepaint(String context) {
 		repaintStack.add(context);
+		// the first paint after the repaint is done
+		basePass = false;
+		baseWriter = null;
 	}
 	void callRepaint() {
 		repaintStack.clear();
-	}
-	byte[] getBuffer(String context, int x, int y) {
-		return !buffers.containsKey(context) ?
-				null : buffers.get(context)[x][y];
+		baseWriter = null;
+		basePass = true;
+		// every context is painted again, so their overlays are rebuilt from what actually differs now
+		for (Overlay overlay : contexts.values()) {
+			if (overlay.count == 0)
+				continue;
+			for (int tx = 0; tx < w * TILES; tx++) {
+				for (int ty = 0; ty < h * TILES; ty++) {
+					if (overlay.tiles[tx][ty] != null)
+						drop(overlay, tx, ty);
+				}
+			}
+		}
 	}
 	public void resetSwitches(String context) {
-		if (!switches.containsKey(context)) return;
-		UpdateSwitch[][] updated = new UpdateSwitch[w][h];
+		Overlay overlay = contexts.get(context);
+		if (overlay == null) return;
 		for (int i = 0; i < w; i++) {
 			for (int j = 0; j < h; j++) {
-				updated[i][j] = new UpdateSwitch();
-				updated[i][j].fire();
+				overlay.switches[i][j].fire();
 			}
 		}
-		switches.put(context, updated);
 	}
 	ConsolePixelBuffer.UpdateSwitch getSwitch(String context, int x, int y) {
-		return !switches.containsKey(context) ?
-				null : switches.get(context)[x][y];
+		Overlay overlay = contexts.get(context);
+		return overlay == null ? null : overlay.switches[x][y];
 	}
 	boolean contextExists(String context) {
-		return switches.containsKey(context);
+		return contexts.containsKey(context);
 	}
 	public void updateFor(Player player, boolean force, boolean paintIfNew) {
 		ConsoleHandler.getInstance().getPainter().updateFor(renderer, player, force, paintIfNew);
 	}
-
-	private class PlayerListener implements Listener {
-		// track whether player is in range or not
-		private boolean inside = false;
-		@EventHandler
-		@SuppressWarnings("unused")
-		// We take the join events and update a player's paintings after
-		// This way, when a player moves within range of the console,
-		// this painting is updated for them (because they haven't had it rendered since they joined!)
-		public void onPlayerJoin(final PlayerJoinEvent e) {
-			// delay initial map packets
-			Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), () -> {
-				if (renderer.pos.getWorld() == e.getPlayer().getWorld()
-						&& renderer.pos.distanceSquared(e.getPlayer().getLocation()) <= 1280) {
-					updateFor(e.getPlayer(), true, true);
-				}
-			}, 10L);
-		}
-		@EventHandler
-		@SuppressWarnings("unused")
-		public void onPlayerQuit(PlayerQuitEvent e) {
-			for (ConsoleMapRenderer map : renderer.renderers()) {
-				map.clearContextCache(e.getPlayer().getName());
-			}
-			repaintStack.remove(e.getPlayer().getName());
-		}
-		// update the painting for players that just entered the area
-		@EventHandler
-		@SuppressWarnings("unused")
-		public void onPlayerMove(PlayerMoveEvent e) {
-			boolean last = inside;
-			inside = renderer.pos.getWorld() == e.getPlayer().getWorld()
-					&& renderer.pos.distanceSquared(e.getTo()) <= 1280;
-			// if the player entered the radius, update the painting
-			if (!last && inside)
-				updateFor(e.getPlayer(), false, true);
-		}
-
-		public void remove() {
-			HandlerList.unregisterAll(this);
-		}
-	}
-	void remove() {
-		listener.remove();
-	}
 }
@@ -21,6 +21,7 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.map.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -90,9 +91,19 @@ public abstract class ConsoleRenderer implements Canvas {
 	// Mappings for map id -> entity id, multi-threaded
 	private HashBiMap<Short, Integer> entityMap = HashBiMap.create();
 
+	// players close enough to this console to be sent repaints, maintained by the console index
+	final Set<Player> viewers = ConcurrentHashMap.newKeySet();
+
 	// Name of the console type. Doesn't actually do anything.
 	protected String type = "unknown";
 
+	// maximum amount of times this console is painted per second, between 1 and 20 (the tick rate)
+	private volatile int frameRate = Consoles.frameRate;
+
+	// the painter tick this console was last painted on, only used by the painter.
+	// starts a second back so the first frame is never delayed.
+	long lastFrame = -20;
+
 	public ConsoleRenderer(int w, int h) {
 		this(w, h, true);
 	}
@@ -166,6 +177,17 @@ public abstract class ConsoleRenderer implements Canvas {
 	public String getType() {
 		return type;
 	}
+	public int getFrameRate() {
+		return frameRate;
+	}
+	// repaint requests made faster than the frame rate are collapsed into a single frame
+	public void setFrameRate(int frameRate) {
+		this.frameRate = Math.max(1, Math.min(20, frameRate));
+	}
+	// the minimum amount of ticks between frames
+	final int getFrameInterval() {
+		return (20 + frameRate - 1) / frameRate;
+	}
 	public void setType(String name) {
 		this.type = name;
 	}
@@ -259,11 +281,7 @@ public abstract class ConsoleRenderer implements Canvas {
 	}
 	public final boolean isFrameId(int entityId) {
 		synchronized (ENTITY_MAP_LOCK) {
-			for (int id : entityMap.values()) {
-				if (id == entityId)
-					return true;
-			}
-			return false;
+			return entityMap.containsValue(entityId);
 		}
 	}
 	public final Logger logger() {
@@ -310,33 +328,37 @@ public abstract class ConsoleRenderer implements Canvas {
 	//
 	// It also calls threaded code, so it won't block, but will put stress on the server
 	public void repaint() {
-		if (Thread.currentThread().getName().equals("Console Painting Thread")) {
+		if (ConsoleHandler.getInstance().getPainter().isPaintThread()) {
 			throw new RuntimeException("repaint() cannot be called within a paint cycle!");
 		}
 		ConsoleHandler.getInstance().getPainter().repaint(this);
 	}
 	public void repaint(int tickDelay) {
-		if (Thread.currentThread().getName().equals("Console Painting Thread")) {
+		if (ConsoleHandler.getInstance().getPainter().isPaintThread()) {
 			throw new RuntimeException("repaint() cannot be called within a paint cycle!");
 		}
 		Bukkit.getScheduler().scheduleSyncDelayedTask(Consoles.getInstance(), this::repaint, tickDelay);
 	}
 	public void remove() {
-		synchronized (RENDERER_LOCK) {
-			screen.remove();
-		}
 		final Entity[] arr = frames.toArray(new Entity[frames.size()]);
 		frames.clear();
 		for (Entity entity : arr) {
 			entity.remove();
 		}
 	}
+	public Collection<Player> getViewers() {
+		return Collections.unmodifiableSet(viewers);
+	}
 	public List<ItemFrame> bukkitEntities() {
 		return frames;
 	}
 	ConsolePixelBuffer getPixelBuffer() {
 		return screen;
 	}
+	// estimated memory used by the pixel buffer of this console (shared layer and all overlays), in bytes
+	public long getMemoryUsage() {
+		return screen.getMemoryUsage();
+	}
 	public void putComponent(Position2D position, CanvasComponent comp) {
 		if (comp == null) {
 			removeComponent(position);
@@ -0,0 +1,87 @@
+package ca.jarcode.consoles.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+
+Index of item frame entity IDs for every console, used when translating entity metadata
+packets. Lookups happen on the network threads for every metadata packet sent, so they
+are done against an immutable open-addressed table of primitive IDs, without locking,
+boxing, or iterating over consoles.
+
+The table is rebuilt when consoles are added or removed, which doesn't happen very often.
+
+ */
+class FrameIndex {
+
+	// frame entity ID -> frame, only used when rebuilding the table
+	private final Map<Integer, Frame> frames = new HashMap<>();
+	// last published table
+	private volatile Table table = new Table(0);
+
+	synchronized void add(ManagedConsole console) {
+		for (Map.Entry<Short, Integer> entry : console.entityMap().entrySet()) {
+			frames.put(entry.getValue(), new Frame(console, entry.getKey()));
+		}
+		rebuild();
+	}
+	synchronized void remove(ManagedConsole console) {
+		frames.values().removeIf((frame) -> frame.console == console);
+		rebuild();
+	}
+	// returns the console frame with the given entity ID, or null if it isn't part of a console
+	Frame get(int entityId) {
+		Table table = this.table;
+		int i = hash(entityId) & table.mask;
+		Frame frame;
+		while ((frame = table.frames[i]) != null) {
+			if (table.ids[i] == entityId)
+				return frame;
+			i = (i + 1) & table.mask;
+		}
+		return null;
+	}
+	private void rebuild() {
+		Table next = new Table(frames.size());
+		for (Map.Entry<Integer, Frame> entry : frames.entrySet()) {
+			int id = entry.getKey();
+			int i = hash(id) & next.mask;
+			while (next.frames[i] != null)
+				i = (i + 1) & next.mask;
+			next.ids[i] = id;
+			next.frames[i] = entry.getValue();
+		}
+		table = next;
+	}
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	// an item frame that is part of a console
+	static class Frame {
+		final ManagedConsole console;
+		// global map ID that the frame displays
+		final short mapIndex;
+
+		private Frame(ManagedConsole console, short mapIndex) {
+			this.console = console;
+			this.mapIndex = mapIndex;
+		}
+	}
+
+	private static class Table {
+		final int[] ids;
+		final Frame[] frames;
+		final int mask;
+
+		// keeps the table at most half full, so there is always an empty slot
+		private Table(int size) {
+			int capacity = Integer.highestOneBit(Math.max(1, size) * 2) * 2;
+			ids = new int[capacity];
+			frames = new Frame[capacity];
+			mask = capacity - 1;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package ca.jarcode.consoles.internal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+
+Map ID translation table for a single context (client). This maps global map IDs (the
+IDs the server uses) to the IDs that the client has been sent.
+
+Global IDs are allocated upwards from a base index, so they are stored in a flat array
+offset by that index. Client IDs that are taken (including old IDs that were retired
+after a dimension change) are tracked in a bitset.
+
+Modifications are not thread-safe and have to be done while holding the allocation lock,
+but lookups are done against an immutable snapshot of the table, which is re-published
+after changes are made. This way the painting threads never block when sending packets.
+
+ */
+class MapAllocationTable {
+
+	private static final short NONE = -1;
+
+	// the lowest global ID
+	private final short base;
+	// global ID (offset by the base) -> client ID, or NONE
+	private short[] forward = new short[0];
+	// client IDs that are in use, or have been retired
+	private final BitSet used = new BitSet();
+	// last published copy of the forward table, used for lookups
+	private volatile short[] snapshot = forward;
+
+	MapAllocationTable(short base) {
+		this.base = base;
+	}
+	// returns the client ID for the given global ID, or -1 if it isn't mapped
+	short translate(short global) {
+		short[] table = snapshot;
+		int i = global - base;
+		return i >= 0 && i < table.length ? table[i] : NONE;
+	}
+	boolean contains(short global) {
+		int i = global - base;
+		return i >= 0 && i < forward.length && forward[i] != NONE;
+	}
+	// maps a global ID to itself
+	void identity(short global) {
+		put(global, global);
+	}
+	// maps a global ID to the lowest free client ID, returns the current
+	// client ID if it's already mapped, or -1 if there is no room.
+	short map(short global) {
+		int i = global - base;
+		if (i >= 0 && i < forward.length && forward[i] != NONE)
+			return forward[i];
+		int client = used.nextClearBit(base);
+		if (client > Short.MAX_VALUE)
+			return NONE;
+		put(global, (short) client);
+		return (short) client;
+	}
+	void remove(short global) {
+		int i = global - base;
+		if (i >= 0 && i < forward.length && forward[i] != NONE) {
+			used.clear(forward[i]);
+			forward[i] = NONE;
+		}
+	}
+	// clears all the global mappings, but keeps their client IDs reserved
+	void retireAll() {
+		Arrays.fill(forward, NONE);
+	}
+	// reserves a client ID, so it won't be used for new mappings
+	void reserve(short client) {
+		if (client >= 0)
+			used.set(client);
+	}
+	// all the client IDs in use, including retired IDs
+	short[] clientIds() {
+		short[] arr = new short[used.cardinality()];
+		int index = 0;
+		for (int i = used.nextSetBit(0); i >= 0; i = used.nextSetBit(i + 1)) {
+			arr[index++] = (short) i;
+		}
+		return arr;
+	}
+	// makes changes visible to lookups
+	void publish() {
+		snapshot = forward.clone();
+	}
+	private void put(short global, short client) {
+		int i = global - base;
+		if (i < 0)
+			return;
+		if (i >= forward.length) {
+			int old = forward.length;
+			forward = Arrays.copyOf(forward, Math.max(i + 1, old * 2));
+			Arrays.fill(forward, old, forward.length, NONE);
+		}
+		if (forward[i] != NONE)
+			used.clear(forward[i]);
+		forward[i] = client;
+		used.set(client);
+	}
+}
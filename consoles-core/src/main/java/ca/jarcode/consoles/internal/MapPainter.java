@@ -6,10 +6,11 @@ import ca.jarcode.consoles.api.nms.ConsolesNMS;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.LongAdder;
 
 import static ca.jarcode.consoles.Lang.lang;
 
@@ -17,137 +18,224 @@ import static ca.jarcode.consoles.Lang.lang;
 
 The class that handles tasks and requests for repainting and updates
 
+Requests are queued per console, and each console's queue is drained by a task
+in a work-stealing pool. Only one task runs for a console at any given time, so
+requests for a single console are still handled in order (and never painted
+concurrently), while separate consoles are painted in parallel.
+
+Every console only holds a single pending request per context. New requests for
+a context that already has one pending are merged into it, so consoles that call
+repaint() very often don't pile up redundant work.
+
+Pending work is dispatched once every server tick, and a console is only painted
+as often as its frame rate allows; requests made in between frames are collapsed
+into the next frame. If there is a packet budget and there is more work than the
+budget allows, consoles with the closest viewers are painted first and the rest
+are left for the next tick. A console that has been left over for MAX_DEFERRALS
+ticks in a row goes first, so far away consoles still get painted eventually.
+
  */
-public class MapPainter implements Runnable {
+public class MapPainter {
+
+	private static final String THREAD_NAME = "Console Painting Thread";
+
+	// amount of ticks in a row a console can be left over before it's painted ahead of closer consoles
+	private static final int MAX_DEFERRALS = 20;
+
+	// pending requests for every console that has work queued
+	private final Map<ConsoleRenderer, ConsoleQueue> queues = new ConcurrentHashMap<>();
+	// the painting context of the task running in the current thread
+	private final ThreadLocal<String> context = new ThreadLocal<>();
+	// created once the painter is started, so the configured amount of threads is used
+	private volatile ForkJoinPool pool = null;
+
+	// the current painter tick, only accessed from the main thread
+	private long tick = 0;
+	// the id of the tick task
+	private int taskId = -1;
+
+	// request counters, these are just used for statistics
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder merged = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder deferred = new LongAdder();
+
+	// starts dispatching paint requests, this has to be called once the plugin is enabled (and the
+	// configuration is loaded). Requests made before this are kept until the painter starts.
+	public void start() {
+		int threads = Consoles.paintThreads > 0 ? Consoles.paintThreads : Runtime.getRuntime().availableProcessors();
+		pool = new ForkJoinPool(threads, (forkJoinPool) -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+			thread.setName(THREAD_NAME + " #" + thread.getPoolIndex());
+			thread.setDaemon(true);
+			return thread;
+		}, null, true);
+		taskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(Consoles.getInstance(), this::tick, 1L, 1L);
+	}
+
+	// dispatches work for every console that is due for a new frame
+	private void tick() {
+		tick++;
+		List<ConsoleQueue> ready = new ArrayList<>();
+		for (ConsoleQueue queue : queues.values()) {
+			if (queue.ready(tick))
+				ready.add(queue);
+		}
+		if (ready.isEmpty())
+			return;
+		int budget = Consoles.packetBudget;
+		// paint consoles that were left over for too long first, and then the consoles with the
+		// closest viewers. This only matters if there is a budget.
+		if (budget > 0) {
+			Map<ConsoleQueue, Double> distances = new HashMap<>();
+			for (ConsoleQueue queue : ready) {
+				distances.put(queue, queue.closestViewer());
+			}
+			ready.sort(Comparator.comparing((ConsoleQueue queue) -> queue.deferrals < MAX_DEFERRALS)
+					.thenComparingInt((queue) -> queue.deferrals < MAX_DEFERRALS ? 0 : -queue.deferrals)
+					.thenComparingDouble(distances::get));
+		}
+		int packets = 0;
+		for (ConsoleQueue queue : ready) {
+			int cost = queue.cost();
+			// always dispatch at least one console, even if it goes over the budget
+			if (budget > 0 && packets > 0 && packets + cost > budget) {
+				deferred.increment();
+				queue.deferrals++;
+				continue;
+			}
+			packets += cost;
+			queue.dispatch(tick);
+		}
+	}
 
-	private final Object LOCK = new Object();
-	private ArrayList<StackEntry> stack = new ArrayList<>();
-	private volatile boolean running = false;
+	private void submit(ConsoleRenderer renderer, boolean callRepaint, Request... requests) {
+		// if the queue was retired right after we grabbed it, just grab a new one
+		while (!queues.computeIfAbsent(renderer, ConsoleQueue::new).add(callRepaint, requests));
+	}
 
-	// only in paint thread
-	private String context;
+	private void process(ConsoleRenderer renderer, boolean callRepaint, Collection<Request> requests) {
 
-	@Override
-	public void run() {
-		running = true;
-		while (running) {
+		if (callRepaint) {
+			synchronized (renderer.RENDERER_LOCK) {
+				// removes all contexts in the repaint stack for the buffer
+				// this makes it so that every player who walks in range of the
+				// console will have have it repainted
+				renderer.getPixelBuffer().callRepaint();
+			}
+		}
 
+		for (Request request : requests) {
 			long at = System.currentTimeMillis();
-			ArrayList<StackEntry> stack;
-			synchronized (LOCK) {
+			synchronized (renderer.RENDERER_LOCK) {
 				if (System.currentTimeMillis() - at > 20)
-					System.out.println(lang.getString("painter-lock1"));
+					System.out.println(lang.getString("painter-lock2"));
 
-				while (this.stack.isEmpty()) {
-					try {
-						LOCK.wait();
-					} catch (InterruptedException ignored) {}
-				}
-				stack = this.stack;
-				this.stack = new ArrayList<>();
-			}
+				// reset switches for this context, the next update will send everything
+				if (request.toggle)
+					renderer.getPixelBuffer().resetSwitches(request.context);
 
-			HashMap<ConsoleRenderer, List<String>> painted = new HashMap<>();
-			for (StackEntry entry : stack) {
-				ConsoleRenderer renderer = entry.renderer;
+				// nothing else to do if this was just a toggle
+				if (request.connection == null)
+					continue;
 
-				// check for duplicate paint requests and ignore them
-				List<String> paintedContexts = painted.get(renderer);
-				if (paintedContexts == null) {
-					paintedContexts = new ArrayList<>();
-					painted.put(renderer, paintedContexts);
+				if (!renderer.created()) {
+					dropped.increment();
+					continue;
 				}
 
-				at = System.currentTimeMillis();
-				synchronized (renderer.RENDERER_LOCK) {
-					if (System.currentTimeMillis() - at > 20)
-						System.out.println(lang.getString("painter-lock2"));
-					if (entry.type == EntryType.TOGGLE) {
-						for (String context : entry.identifiers) {
-							renderer.getPixelBuffer().resetSwitches(context);
-						}
+				if (
+				// We only repaint if:
+				// a repaint is required for this context (the content changed)
+
+						renderer.getPixelBuffer().needsRepaint(request.context)
+
+				// the update requested a repaint (for whatever reason)
+
+						|| request.paint
+
+				// if this has not been painted for this player before, and the update allows painting
+				// for new consoles
+
+						|| (request.paintIfNew && !renderer.getPixelBuffer().contextExists(request.context))
+
+				// We don't need to check for duplicate requests here, there is only ever one
+				// request for a context in a batch.
+
+						){
+					try {
+						context.set(request.context);
+						at = System.currentTimeMillis();
+						renderer.paint();
+						if (System.currentTimeMillis() - at > 100)
+							Consoles.getInstance().getLogger()
+									.warning(lang.getString("painter-overload") + " (" +
+									(System.currentTimeMillis() - at) + "), class: "
+									+ renderer.getClass() + ", name: " + renderer.type +
+									", batch size: " + requests.size() + ", context: " + request.context);
 					}
-					else if (entry.type == EntryType.REPAINT_TOGGLE) {
-						// removes all contexts in the repaint stack for the buffer
-						// this makes it so that every player who walks in range of the
-						// console will have have it repainted
-						renderer.getPixelBuffer().callRepaint();
+					catch (Throwable e) {
+						e.printStackTrace();
 					}
-					else if (entry.type == EntryType.UPDATE) {
-						if (renderer.created()) {
-							for (int t = 0; t < entry.connections.length; t++) {
-								if ((
-								// We only repaint if:
-								// a repaint is required for this context (the content changed)
-
-										renderer.getPixelBuffer().needsRepaint(context)
-
-								// the update requested a repaint (for whatever reason)
-
-										|| entry.paint
-
-								// if this has not been painted for this player before, and the update allows painting
-								// for new consoles
-
-								        || (entry.paintIfNew && !renderer.getPixelBuffer()
-										.contextExists(entry.identifiers[t])))
-
-								// And we also do not re-repaint, so if we've already handled a paint
-								// request for this context, we ignore any other ones.
-
-										&& !paintedContexts.contains(entry.identifiers[t])
-
-										){
-									try {
-										context = entry.identifiers[t];
-										at = System.currentTimeMillis();
-										renderer.paint();
-										if (System.currentTimeMillis() - at > 100)
-											Consoles.getInstance().getLogger()
-													.warning(lang.getString("painter-overload") + " (" +
-													(System.currentTimeMillis() - at) + "), class: "
-													+ renderer.getClass() + ", name: " + renderer.type +
-													", index: " + t + ", entry size: " + entry.connections.length
-													+ ", stack size: " + stack.size() + ", identifiers: "
-													+ entry.identifiers[t]);
-									}
-									catch (Throwable e) {
-										e.printStackTrace();
-									}
-									finally {
-										context = null;
-									}
-									paintedContexts.add(entry.identifiers[t]);
-									// add this context back to our list of contexts we have already painted for
-									renderer.getPixelBuffer().switchRepaint(context);
-								}
-								at = System.currentTimeMillis();
-								for (ConsoleMapRenderer map : renderer.renderers()) {
-									// if this request forces updates, toggle switches
-									if (entry.force)
-										map.forceSwitch(entry.identifiers[t]);
-									// send packets
-									map.update(entry.connections[t], entry.identifiers[t]);
-								}
-								if (System.currentTimeMillis() - at > 20)
-									System.out.println(lang.getString("painter-packet-overload"));
-							}
-						}
+					finally {
+						context.remove();
 					}
+					// add this context back to our list of contexts we have already painted for
+					renderer.getPixelBuffer().switchRepaint(request.context);
 				}
+				at = System.currentTimeMillis();
+				for (ConsoleMapRenderer map : renderer.renderers()) {
+					// if this request forces updates, toggle switches
+					if (request.force)
+						map.forceSwitch(request.context);
+					// send packets
+					map.update(request.connection, request.context);
+				}
+				if (System.currentTimeMillis() - at > 20)
+					System.out.println(lang.getString("painter-packet-overload"));
 			}
-			stack.clear();
 		}
 	}
 
 	// this is for simplifying painting code so we don't have to supply parameters in paint methods.
-	// must be in paint thread. This is not synchronized to anything.
+	// must be in a paint task, the context is tracked for every painting thread.
 	public String getPaintContext() {
-		return context;
+		return context.get();
+	}
+
+	// whether the current thread is one of the painting threads
+	public boolean isPaintThread() {
+		Thread thread = Thread.currentThread();
+		ForkJoinPool pool = this.pool;
+		return pool != null && thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool;
 	}
 
 	public void stop() {
-		running = false;
+		if (taskId != -1)
+			Bukkit.getScheduler().cancelTask(taskId);
+		ForkJoinPool pool = this.pool;
+		if (pool != null)
+			pool.shutdownNow();
+	}
+
+	// total amount of requests made to the painter
+	public long getSubmittedRequests() {
+		return submitted.sum();
+	}
+
+	// amount of requests that were merged into a request that was already pending
+	public long getMergedRequests() {
+		return merged.sum();
+	}
+
+	// amount of requests that were thrown away without being handled
+	public long getDroppedRequests() {
+		return dropped.sum();
+	}
+
+	// amount of frames that were pushed to the next tick because of the packet budget
+	public long getDeferredFrames() {
+		return deferred.sum();
 	}
 
 	/**
@@ -157,25 +245,16 @@ public class MapPainter implements Runnable {
 	 */
 	public void repaint(ConsoleRenderer renderer) {
 
-		// only render to closest players
-		List<Player> close = Bukkit.getOnlinePlayers().stream()
-				.filter(player -> renderer.pos.getWorld() == player.getWorld()
-						&& renderer.pos.distance(player.getLocation()) <= 64)
-				.collect(Collectors.toList());
-
-		synchronized (LOCK) {
-			// repaint switch
-			stack.add(new StackEntry(renderer));
-			ClientConnection[] arr = new ClientConnection[close.size()];
-			String[] names = new String[close.size()];
-			for (int t = 0; t < arr.length; t++) {
-				arr[t] = ConsolesNMS.packetInternals.getConnection(close.get(t));
-				names[t] = close.get(t).getName();
-			}
-			// add update requests
-			stack.add(new StackEntry(renderer, arr, names, true, false, false));
-			LOCK.notify();
+		// only render to closest players, these are tracked by the console index
+		Player[] close = renderer.viewers.toArray(new Player[0]);
+
+		Request[] requests = new Request[close.length];
+		for (int t = 0; t < requests.length; t++) {
+			requests[t] = new Request(close[t].getName(),
+					ConsolesNMS.packetInternals.getConnection(close[t]), false, true, false, false);
 		}
+		// repaint switch and update requests
+		submit(renderer, true, requests);
 	}
 
 	/**
@@ -186,10 +265,11 @@ public class MapPainter implements Runnable {
 	 * @param contexts the contexts to update
  	 */
 	public void toggle(ConsoleRenderer renderer, String... contexts) {
-		synchronized (LOCK) {
-			stack.add(new StackEntry(renderer, contexts));
-			LOCK.notify();
+		Request[] requests = new Request[contexts.length];
+		for (int t = 0; t < requests.length; t++) {
+			requests[t] = new Request(contexts[t], null, true, false, false, false);
 		}
+		submit(renderer, false, requests);
 	}
 
 	/**
@@ -211,14 +291,12 @@ public class MapPainter implements Runnable {
 	 * @param paintIfNew will repaint the console if it hasn't been painted before
 	 */
 	public void updateFor(ConsoleRenderer renderer, Player player, boolean force, boolean paintIfNew) {
-		if (renderer.pos.getWorld() == player.getWorld() && renderer.pos.distance(player.getLocation()) > 64) return;
+		if (renderer.pos.getWorld() == player.getWorld()
+				&& renderer.pos.distanceSquared(player.getLocation()) > ConsoleIndex.VIEW_DISTANCE
+				* ConsoleIndex.VIEW_DISTANCE) return;
 
-		synchronized (LOCK) {
-			stack.add(new StackEntry(renderer,
-					new ClientConnection[]{ConsolesNMS.packetInternals.getConnection(player)},
-					new String[]{player.getName()}, false, force, paintIfNew));
-			LOCK.notify();
-		}
+		submit(renderer, false, new Request(player.getName(),
+				ConsolesNMS.packetInternals.getConnection(player), false, false, force, paintIfNew));
 	}
 	public Player translateContext(String context) {
 		for (Player player : Bukkit.getOnlinePlayers()) {
@@ -228,44 +306,137 @@ public class MapPainter implements Runnable {
 		return null;
 	}
 	public void repaintFor(ConsoleRenderer renderer, Player player) {
-		if (renderer.pos.distance(player.getLocation()) > 64) return;
+		if (renderer.pos.distanceSquared(player.getLocation()) > ConsoleIndex.VIEW_DISTANCE
+				* ConsoleIndex.VIEW_DISTANCE) return;
 
-		synchronized (LOCK) {
-			stack.add(new StackEntry(renderer,
-					new ClientConnection[] {ConsolesNMS.packetInternals.getConnection(player)},
-					new String[] {player.getName()}, true, false, false));
-			LOCK.notify();
+		submit(renderer, false, new Request(player.getName(),
+				ConsolesNMS.packetInternals.getConnection(player), false, true, false, false));
+	}
+	// pending requests for a single console. At most one task drains this queue at a time,
+	// and it is only dispatched to the pool by the tick task.
+	private class ConsoleQueue implements Runnable {
+		final ConsoleRenderer renderer;
+		// pending requests, one for every context
+		Map<String, Request> pending = new LinkedHashMap<>();
+		// whether a repaint was called for this console
+		boolean callRepaint = false;
+		boolean scheduled = false;
+		// set when this queue is removed, requests have to go to a new queue afterwards
+		boolean retired = false;
+		// amount of ticks in a row this console was ready but left over, only used from the main thread
+		int deferrals = 0;
+		ConsoleQueue(ConsoleRenderer renderer) {
+			this.renderer = renderer;
+		}
+		synchronized boolean add(boolean callRepaint, Request... requests) {
+			if (retired)
+				return false;
+			submitted.add(requests.length + (callRepaint ? 1 : 0));
+			// requests are just dropped once the painter is stopped
+			ForkJoinPool pool = MapPainter.this.pool;
+			if (pool != null && pool.isShutdown()) {
+				dropped.add(requests.length + (callRepaint ? 1 : 0));
+				return true;
+			}
+			if (callRepaint) {
+				if (this.callRepaint)
+					merged.increment();
+				this.callRepaint = true;
+			}
+			for (Request request : requests) {
+				Request existing = pending.putIfAbsent(request.context, request);
+				if (existing != null) {
+					existing.merge(request);
+					merged.increment();
+				}
+			}
+			return true;
+		}
+		// whether this console has work and is due for a new frame
+		synchronized boolean ready(long tick) {
+			return !scheduled && !retired && (callRepaint || !pending.isEmpty())
+					&& tick - renderer.lastFrame >= renderer.getFrameInterval();
+		}
+		// the (maximum) amount of packets the pending requests will send
+		synchronized int cost() {
+			int updates = 0;
+			for (Request request : pending.values()) {
+				if (request.connection != null)
+					updates++;
+			}
+			return updates * renderer.getFrameWidth() * renderer.getFrameHeight();
+		}
+		// squared distance of the closest player waiting on this console, must be called from the main thread
+		synchronized double closestViewer() {
+			double closest = Double.MAX_VALUE;
+			if (!renderer.created())
+				return closest;
+			for (String context : pending.keySet()) {
+				Player player = Bukkit.getPlayerExact(context);
+				if (player != null && player.getWorld() == renderer.pos.getWorld()) {
+					closest = Math.min(closest, renderer.pos.distanceSquared(player.getLocation()));
+				}
+			}
+			return closest;
+		}
+		synchronized void dispatch(long tick) {
+			scheduled = true;
+			deferrals = 0;
+			renderer.lastFrame = tick;
+			pool.execute(this);
+		}
+		@Override
+		public void run() {
+			Map<String, Request> batch;
+			boolean callRepaint;
+			synchronized (this) {
+				batch = pending;
+				callRepaint = this.callRepaint;
+				pending = new LinkedHashMap<>();
+				this.callRepaint = false;
+			}
+			try {
+				process(renderer, callRepaint, batch.values());
+			}
+			catch (Throwable e) {
+				e.printStackTrace();
+			}
+			synchronized (this) {
+				scheduled = false;
+				// anything added while painting is left for the next frame
+				if (pending.isEmpty() && !this.callRepaint) {
+					retired = true;
+					queues.remove(renderer, this);
+				}
+			}
 		}
 	}
-	private class StackEntry {
-		ConsoleRenderer renderer;
-		ClientConnection[] connections;
-		String[] identifiers;
+	// a pending request for a single context, these are merged together if
+	// there are multiple requests for the same context.
+	private static class Request {
+		final String context;
+		// connection to send packets to, null if this request doesn't send updates
+		ClientConnection connection;
+		boolean toggle;
 		boolean paint;
-		boolean paintIfNew;
 		boolean force;
-		EntryType type;
-		public StackEntry(ConsoleRenderer renderer, ClientConnection[] connections,
-		                  String[] identifiers, boolean paint, boolean force, boolean paintIfNew) {
-			this.renderer = renderer;
-			this.connections = connections;
-			this.identifiers = identifiers;
+		boolean paintIfNew;
+		Request(String context, ClientConnection connection,
+		        boolean toggle, boolean paint, boolean force, boolean paintIfNew) {
+			this.context = context;
+			this.connection = connection;
+			this.toggle = toggle;
 			this.paint = paint;
 			this.force = force;
 			this.paintIfNew = paintIfNew;
-			type = EntryType.UPDATE;
 		}
-		public StackEntry(ConsoleRenderer renderer, String... contexts) {
-			this.renderer = renderer;
-			this.identifiers = contexts;
-			type = EntryType.TOGGLE;
-		}
-		public StackEntry(ConsoleRenderer renderer) {
-			this.renderer = renderer;
-			type = EntryType.REPAINT_TOGGLE;
+		void merge(Request other) {
+			if (other.connection != null)
+				connection = other.connection;
+			toggle |= other.toggle;
+			paint |= other.paint;
+			force |= other.force;
+			paintIfNew |= other.paintIfNew;
 		}
 	}
-	private enum EntryType {
-		UPDATE, TOGGLE, REPAINT_TOGGLE
-	}
 }
@@ -9,4 +9,6 @@ public interface PacketInternals {
 	void registerMapPacket(Object packet);
 	ClientConnection getConnection(Player player);
 	Object createMapPacket(byte[] data, int id);
+	// partial map update, the data only contains the (width * height) region at the given offset
+	Object createMapPacket(byte[] data, int id, int x, int y, int width, int height);
 }
@@ -2,17 +2,20 @@ package com.github.incognitojam.consoles.v1_12_R1;
 
 import ca.jarcode.consoles.api.nms.ClientConnection;
 import ca.jarcode.consoles.api.nms.PacketInternals;
+import com.google.common.collect.MapMaker;
 import net.minecraft.server.v1_12_R1.Packet;
 import net.minecraft.server.v1_12_R1.PacketPlayOutEntityMetadata;
 import net.minecraft.server.v1_12_R1.PacketPlayOutMap;
 import org.bukkit.entity.Player;
 
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Collections;
+import java.util.Set;
 
 public class InternalPacketManager implements PacketInternals {
 
-    private List<Packet> packets = new CopyOnWriteArrayList<>();
+    // map packets that we created, compared by identity. Keys are weak so packets that are never
+    // sent (ie. the player disconnected) don't pile up.
+    private Set<Packet> packets = Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
 
     @Override
     public void registerMetadataPacketTranslator(Player player) {
@@ -43,4 +46,9 @@ public class InternalPacketManager implements PacketInternals {
         return PacketFunctions.createUpdatePacket(data, id, packets);
     }
 
+    @Override
+    public Object createMapPacket(byte[] data, int id, int x, int y, int width, int height) {
+        return PacketFunctions.createUpdatePacket(data, id, x, y, width, height, packets);
+    }
+
 }
@@ -8,9 +8,9 @@ import org.bukkit.entity.Player;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Predicate;
 
 /**
@@ -24,6 +24,8 @@ public class PacketFunctions {
     // we ignore a decent amount of fields for map packets there because we can leave them as their defaults (0).
     private static final Field MAP_ID;
     private static final Field MAP_ICONS;
+    private static final Field MAP_X;
+    private static final Field MAP_Z;
     private static final Field MAP_WIDTH;
     private static final Field MAP_HEIGHT;
     private static final Field MAP_DATA;
@@ -33,11 +35,15 @@ public class PacketFunctions {
             // set up fields that we access when creating new packets
             MAP_ID = PacketPlayOutMap.class.getDeclaredField("a");
             MAP_ICONS = PacketPlayOutMap.class.getDeclaredField("d");
+            MAP_X = PacketPlayOutMap.class.getDeclaredField("e");
+            MAP_Z = PacketPlayOutMap.class.getDeclaredField("f");
             MAP_WIDTH = PacketPlayOutMap.class.getDeclaredField("g");
             MAP_HEIGHT = PacketPlayOutMap.class.getDeclaredField("h");
             MAP_DATA = PacketPlayOutMap.class.getDeclaredField("i");
             MAP_ID.setAccessible(true);
             MAP_ICONS.setAccessible(true);
+            MAP_X.setAccessible(true);
+            MAP_Z.setAccessible(true);
             MAP_WIDTH.setAccessible(true);
             MAP_HEIGHT.setAccessible(true);
             MAP_DATA.setAccessible(true);
@@ -49,7 +55,14 @@ public class PacketFunctions {
     // faster way of creating maps
     // we avoid copying a buffer when creating the packet using reflection,
     // so we can use the pixel buffer's sections directly.
-    public static PacketPlayOutMap createUpdatePacket(byte[] data, int id, List<Packet> packets) {
+    public static PacketPlayOutMap createUpdatePacket(byte[] data, int id, Set<Packet> packets) {
+        return createUpdatePacket(data, id, 0, 0, 128, 128, packets);
+    }
+
+    // same as above, but only updates a region of the map. The data passed is
+    // only for that region, with a length of (width * height)
+    public static PacketPlayOutMap createUpdatePacket(byte[] data, int id, int x, int z, int width, int height,
+                                                      Set<Packet> packets) {
         if (data == null) return null;
         PacketPlayOutMap map = newMapPacket(packets);
         try {
@@ -58,10 +71,11 @@ public class PacketFunctions {
             // initialize the icon array in the packet with an empty array
             // we don't use any map icons, so this is fine to do.
             MAP_ICONS.set(map, new MapIcon[0]);
-            // we always send packets that update the entire map area,
-            // so the dimensions are always 128x128
-            MAP_WIDTH.set(map, 128);
-            MAP_HEIGHT.set(map, 128);
+            // offset and dimensions of the area we're updating
+            MAP_X.set(map, x);
+            MAP_Z.set(map, z);
+            MAP_WIDTH.set(map, width);
+            MAP_HEIGHT.set(map, height);
             // pass through the byte array directly
             // this avoids a considerable amount of overhead from sending packets
             MAP_DATA.set(map, data);
@@ -91,14 +105,11 @@ public class PacketFunctions {
 
     // Most packets should be blocked by our fake map items and trackers, so this
     // won't do much in normal servers.
-    public static boolean handleMapPacket(PacketPlayOutMap packet, List<Packet> packets) {
-        if (packets.contains(packet)) {
-            packets.remove(packet);
-            return true;
-        } else return false;
+    public static boolean handleMapPacket(PacketPlayOutMap packet, Set<Packet> packets) {
+        return packets.remove(packet);
     }
 
-    public static PacketPlayOutMap newMapPacket(List<Packet> packets) {
+    public static PacketPlayOutMap newMapPacket(Set<Packet> packets) {
         PacketPlayOutMap packet = new PacketPlayOutMap();
         packets.add(packet);
         return packet;
@@ -109,11 +120,17 @@ public class PacketFunctions {
     public static boolean handleMetadataPacket(PacketPlayOutEntityMetadata packet, String context) {
         // get list of objects
         List<DataWatcher.Item> list = (List<DataWatcher.Item>) get(PACKET_LIST, packet);
-        // create object mappings of the above list
-        HashMap<Object, DataWatcher.Item> objects = new HashMap<>();
-        for (DataWatcher.Item aList : list) {
-            objects.put(aList.b(), aList);
+        // find the watched item stack, most metadata packets won't have one
+        ItemStack stack = null;
+        for (int t = 0; t < list.size(); t++) {
+            Object value = list.get(t).b();
+            if (value instanceof ItemStack) {
+                stack = (ItemStack) value;
+                break;
+            }
         }
+        if (stack == null)
+            return true;
         // get entity id
         int id;
         try {
@@ -121,10 +138,8 @@ public class PacketFunctions {
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
-        // if the map/packet contains an item stack, and is for a console entity
-        if (objects.containsKey(8) && InternalHooks.isConsoleEntity(id)) {
-            // get stack from the map
-            ItemStack stack = (ItemStack) objects.get(8).b();
+        // if the packet is for a console entity
+        if (InternalHooks.isConsoleEntity(id)) {
             // global map id
             short global = (short) stack.getData();
             // player context map id
@@ -135,8 +150,7 @@ public class PacketFunctions {
             else return false;
         }
         // block other map metadata
-        else if (objects.containsKey(8) && objects.get(8).b() instanceof ItemStack) {
-            ItemStack stack = (ItemStack) objects.get(8).b();
+        else {
             return stack.getItem() != Items.FILLED_MAP && stack.getItem() != Items.MAP;
         }
         return true;